@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Encoding a room's text game state on the server, and decoding it on a client, for the same worlds as TickBenchmark.
+ * Neither changes the world, so there is no reset between invocations.
+ *
+ *   mvn -P bench package && java -jar target/benchmarks.jar CodecBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CodecBenchmark {
+    @Param({"1", "8", "64"})
+    public int players;
+
+    @Param({"10", "1000", "10000"})
+    public int entities;
+
+    private Runnable encode, decode;
+
+    @Setup(Level.Trial)
+    public void createWorld() throws ReflectiveOperationException {
+        Map<String, Runnable> world = Worlds.create(players, entities);
+        encode = world.get("encode");
+        decode = world.get("decode");
+    }
+
+    @Benchmark
+    public void updateGameStateString() {
+        encode.run();
+    }
+
+    @Benchmark
+    public void processData() {
+        decode.run();
+    }
+}
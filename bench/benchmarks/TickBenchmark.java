@@ -0,0 +1,59 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The parts of a room's tick, on worlds of 1/8/64 players and 10/1k/10k enemies and as many missiles.
+ *
+ * They change the world, so it is reset before every invocation: each one starts from the same tick, waves,
+ * random sequence, players and entities. The reset isn't timed, and doesn't allocate, so -prof gc only sees the tick.
+ *
+ *   mvn -P bench package && java -jar target/benchmarks.jar TickBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TickBenchmark {
+    @Param({"1", "8", "64"})
+    public int players;
+
+    @Param({"10", "1000", "10000"})
+    public int entities;
+
+    private Runnable reset, timeStep, checkCollision, removeOutOfBounds;
+
+    @Setup(Level.Trial)
+    public void createWorld() throws ReflectiveOperationException {
+        Map<String, Runnable> world = Worlds.create(players, entities);
+        reset = world.get("reset");
+        timeStep = world.get("timeStep");
+        checkCollision = world.get("checkCollision");
+        removeOutOfBounds = world.get("removeOutOfBounds");
+    }
+
+    @Setup(Level.Invocation)
+    public void resetWorld() {
+        reset.run();
+    }
+
+    @Benchmark
+    public void timeStep() {
+        timeStep.run();
+    }
+
+    @Benchmark
+    public void checkCollision() {
+        checkCollision.run();
+    }
+
+    @Benchmark
+    public void removeOutOfBounds() {
+        removeOutOfBounds.run();
+    }
+}
@@ -0,0 +1,23 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Builds the game's benchmark worlds. The game is in the default package, which a named package can't import,
+ * so BenchmarkWorld is reached by reflection. Only the setup pays for it, the benchmarks call plain Runnables.
+ */
+final class Worlds {
+    private Worlds() {
+    }
+
+    /**
+     * The operations of a new world, see BenchmarkWorld.operations.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Runnable> create(int players, int entities) throws ReflectiveOperationException {
+        Method operations = Class.forName("BenchmarkWorld").getDeclaredMethod("operations", int.class, int.class);
+        operations.setAccessible(true);
+        return (Map<String, Runnable>) operations.invoke(null, players, entities);
+    }
+}
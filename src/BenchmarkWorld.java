@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The synthetic worlds of the JMH benchmarks in bench/: a room with N players, N enemies and N missiles.
+ *
+ * JMH needs its benchmarks in a named package, which can't see the classes here, so the benchmarks get
+ * a world's operations by name from {@link #operations}, through reflection (see benchmarks.Worlds).
+ */
+final class BenchmarkWorld {
+    final int playerCount, entityCount;
+    final Room room = new Room("bench", 1);
+    final ArrayList<Player> players = new ArrayList<>();
+    private final int[] playerX, playerY;
+    private final EntityStore savedEnemies, savedMissiles;
+    private final WorldSnapshot snapshot;
+    private final byte[] gameState;
+    private final Client client = new Client("p0");
+
+    private static volatile Object sink;  // keeps results alive so the JIT cannot drop the work
+
+    BenchmarkWorld(int playerCount, int entityCount) {
+        this.playerCount = playerCount;
+        this.entityCount = entityCount;
+        var random = new Random(playerCount * 31L + entityCount);
+
+        playerX = new int[playerCount];
+        playerY = new int[playerCount];
+        for (int i = 0; i < playerCount; i++) {
+            var p = new Player(random.nextInt(Client.DEFAULT_WIDTH - 64), random.nextInt(Client.DEFAULT_HEIGHT - 62));
+            p.id = i;
+            p.setName("p" + i);
+            p.isFiring = true;
+            playerX[i] = p.x;
+            playerY[i] = p.y;
+            players.add(p);
+            var c = new NullConnection();
+            c.player = p;
+            try {
+                room.join(c);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        // the joins happen on a time step, which then publishes snapshots as it does with clients connected
+        room.game.timeStep();
+
+        for (int i = 0; i < entityCount; i++) {
+            room.enemies.spawn(random.nextInt(Client.DEFAULT_WIDTH), random.nextInt(Client.DEFAULT_HEIGHT + 150) - 100,
+                    0, Enemy.DEFAULT_DY, -1);
+            room.missiles.spawn(random.nextInt(Client.DEFAULT_WIDTH), random.nextInt(Client.DEFAULT_HEIGHT + 100) - 50,
+                    0, Missile.DEFAULT_DY, random.nextInt(playerCount));
+        }
+        savedEnemies = new EntityStore(SpriteType.ENEMY, 0);
+        savedEnemies.copyFrom(room.enemies);
+        savedMissiles = new EntityStore(SpriteType.MISSILE, 0);
+        savedMissiles.copyFrom(room.missiles);
+        reset();
+
+        snapshot = WorldSnapshot.capture(0, 0, players, room.missiles, room.enemies);
+        room.updateGameStateString(snapshot);
+        gameState = room.gameState.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The world's operations by name. "reset" puts the world back as it was built, so the ones that change it
+     * ("timeStep", "checkCollision", "removeOutOfBounds") can run again on the same state. It doesn't allocate.
+     * "encode" and "decode" only read it.
+     */
+    static Map<String, Runnable> operations(int playerCount, int entityCount) {
+        var w = new BenchmarkWorld(playerCount, entityCount);
+        var ops = new LinkedHashMap<String, Runnable>();
+        ops.put("reset", w::reset);
+        ops.put("timeStep", w.room.game::timeStep);
+        ops.put("checkCollision", w.room.game::checkCollision);
+        ops.put("removeOutOfBounds", w.room.game::removeOutOfBoundsObjects);
+        ops.put("encode", w::encode);
+        ops.put("decode", w::decode);
+        return ops;
+    }
+
+    /**
+     * Everything a time step changes: the entities, the players, and the room's tick, waves and random sequence.
+     */
+    void reset() {
+        room.rewind();
+        room.enemies.copyFrom(savedEnemies);
+        room.missiles.copyFrom(savedMissiles);
+        for (int i = 0; i < playerCount; i++) {
+            var p = players.get(i);
+            p.x = playerX[i];
+            p.y = playerY[i];
+            p.firingCounter = 0;
+            p.inputTicks = 0;
+            p.health = Integer.MAX_VALUE / 2;  // nobody dies, so every operation sees the same players
+        }
+    }
+
+    void encode() {
+        room.updateGameStateString(snapshot);
+        sink = room.gameState;
+    }
+
+    void decode() {
+        client.processData(gameState, 0, gameState.length);
+        sink = client;
+    }
+}
@@ -0,0 +1,94 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Opt-in binary version of the game state protocol. Picked by the client during the handshake (see {@link Handshake}).
+ *
+ * FRAME FORMAT
+ * [length: int32 = number of bytes after this field] [type: byte] [payload]
+ *
+ * WELCOME     [playerId] [tickMicros] [udpToken: int64]                  sent once, right after the handshake.
+ *                                                                        udpToken only to UDP clients, see DatagramProtocol
+ * ROSTER      [N: int32] ([playerId] [nameLength] [name, utf-8]) * N      sent whenever a player joins or leaves
+ * SNAPSHOT    [P: int32] ([playerId] [x] [y]) * P
+ *             [M: int32] ([ownerId] [x] [y]) * M                          player missiles
+ *             [E: int32] ([x] [y]) * E                                    enemies
+ * DELTA       [seq: int32] [tick: int32] [baselineSeq: int32, -1 = none]   instead of SNAPSHOT, if the client asked for it
+ *             [players] [missiles] [enemies]                             each a group delta, see WorldSnapshot.Group
+ * INPUT_ACK   [tick: int32] [inputSeq, zigzag] [inputTicks]              right before SNAPSHOT or DELTA, to clients that
+ *                                                                        send compact input: the newest input the next
+ *                                                                        state includes, and for how many ticks it was applied
+ *
+ * A client receiving DELTA frames answers with an "ACK [seq]" line once it has applied one,
+ * and the server then sends only what changed since the newest acknowledged snapshot.
+ *
+ * ids and lengths are unsigned varints, coordinates are zigzag varints.
+ * Counts in ROSTER and SNAPSHOT frames are fixed width so they can be filled in after the section is written.
+ */
+final class BinaryProtocol {
+    static final byte WELCOME = 1;
+    static final byte ROSTER = 2;
+    static final byte SNAPSHOT = 3;
+    static final byte DELTA = 4;
+    static final byte INPUT_ACK = 5;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Reserves the length field and writes the frame type.
+     * @return the position of the frame, to pass to {@link #endFrame(ByteBuffer, int)}
+     */
+    static int beginFrame(ByteBuffer b, byte type) {
+        int start = b.position();
+        b.putInt(0);
+        b.put(type);
+        return start;
+    }
+
+    static void endFrame(ByteBuffer b, int start) {
+        b.putInt(start, b.position() - start - 4);
+    }
+
+    static void putVarInt(ByteBuffer b, int v) {
+        while ((v & ~0x7F) != 0) {
+            b.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        b.put((byte) v);
+    }
+
+    static int getVarInt(ByteBuffer b) {
+        int v = 0;
+        int shift = 0;
+        byte in;
+        do {
+            in = b.get();
+            v |= (in & 0x7F) << shift;
+            shift += 7;
+        } while ((in & 0x80) != 0);
+        return v;
+    }
+
+    static void putSignedVarInt(ByteBuffer b, int v) {
+        putVarInt(b, (v << 1) ^ (v >> 31));
+    }
+
+    static int getSignedVarInt(ByteBuffer b) {
+        int v = getVarInt(b);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Copies the frames in b[0, position) into a new read-only buffer that every connection can send.
+     */
+    static ByteBuffer share(ByteBuffer b) {
+        var copy = ByteBuffer.allocate(b.position());
+        copy.put(b.array(), 0, b.position());
+        copy.flip();
+        return copy.asReadOnlyBuffer();
+    }
+
+    static ByteBuffer grow(ByteBuffer b) {
+        return ByteBuffer.allocate(b.capacity() * 2);
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The server's checkpoint file: the state of every room, rewritten every PERIOD, so a restarted server
+ * carries on the matches where they were instead of dropping them (see Server.restore).
+ *
+ *   -Dnewgame.checkpoint=[file]            turns checkpoints on, and restores the file's last one at startup
+ *   -Dnewgame.checkpointPeriod=[ms]        how often, default 1000
+ *
+ * The file is memory-mapped, so writing a checkpoint is a copy into memory and a force to disk: it survives the server,
+ * or the machine, crashing.
+ * It has two slots, written in turn: a crash halfway through a write leaves the other slot, and its checkpoint, intact.
+ *
+ * FILE FORMAT
+ * [magic: int32 = "NGCP"] [version: int32] [slot size: int32]      padded to HEADER bytes
+ * then 2 slots of slot size bytes, each [seq: int64] [length: int32] [crc32 of the payload: int32] [payload]
+ * payload: [nextPlayerId: int32] [R: int32] ([length: int32] [room, see Room.checkpoint]) * R
+ *
+ * The slot with the highest seq whose CRC matches holds the last checkpoint. seq is written after the rest of the slot
+ * has been forced to disk, so a slot that was being rewritten still has its old seq, which is lower than the other slot's.
+ */
+final class Checkpoint {
+    static final String FILE = System.getProperty("newgame.checkpoint");
+    static final int PERIOD = Integer.getInteger("newgame.checkpointPeriod", 1000);  // milliseconds
+    static final int MAGIC = 0x4E474350;
+    static final int VERSION = 2;  // 2: rooms have their wave position instead of the spawn counter
+    private static final int HEADER = 64;
+    private static final int SLOT_HEADER = 16;
+
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private int slotSize = 64 * 1024;
+    private long seq = 0;  // of the last checkpoint
+    private int latestSlot = -1;  // holds the last checkpoint, -1 if there is none
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens the file, or creates it. An existing file with an unknown format is overwritten.
+     */
+    Checkpoint(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() >= HEADER) {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            if (map.getInt(0) == MAGIC && map.getInt(4) == VERSION) {
+                slotSize = map.getInt(8);
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 2L * slotSize);
+                for (int slot = 0; slot < 2; slot++) {
+                    if (isValid(slot) && (latestSlot < 0 || map.getLong(offset(slot)) > seq)) {
+                        latestSlot = slot;
+                        seq = map.getLong(offset(slot));
+                    }
+                }
+                return;
+            }
+        }
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 2L * slotSize);
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putInt(8, slotSize);
+        map.putLong(offset(0), 0);
+        map.putLong(offset(1), 0);
+    }
+
+    /**
+     * The payload of the last checkpoint in the file, or null if it has none.
+     */
+    synchronized ByteBuffer latest() {
+        if (latestSlot < 0) return null;
+        int at = offset(latestSlot);
+        var payload = ByteBuffer.allocate(map.getInt(at + 8));
+        payload.put(map.duplicate().position(at + SLOT_HEADER).limit(at + SLOT_HEADER + payload.capacity()));
+        return payload.flip();
+    }
+
+    /**
+     * Writes payload[position, limit) into the slot that doesn't hold the last checkpoint, making it the last one.
+     */
+    synchronized void write(ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        int slot = 1 - Math.max(latestSlot, 0);
+        boolean grow = SLOT_HEADER + length > slotSize;
+        if (grow) {
+            // slot 1 of the bigger layout starts past the end of the old one, so both old slots survive until
+            // the new size is in the header. After that, the old slot 0 is the new slot 0 and its checkpoint still
+            // matches its CRC, but slot 1 has a higher seq. The old slot 1 is inside the new slot 0, nothing reads it.
+            while (SLOT_HEADER + length > slotSize) slotSize *= 2;
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 2L * slotSize);
+            slot = 1;
+        }
+
+        int at = offset(slot);
+        map.duplicate().position(at + SLOT_HEADER).put(payload.duplicate());
+        crc.reset();
+        crc.update(payload);
+        map.putInt(at + 8, length);
+        map.putInt(at + 12, (int) crc.getValue());
+        map.force();  // the slot is on disk before the seq that makes it the latest
+        map.putLong(at, ++seq);
+        if (grow) {
+            map.force();  // and the seq before the size that makes the new slot 1 readable
+            map.putInt(8, slotSize);
+            map.force();
+        }
+        latestSlot = slot;
+    }
+
+    private boolean isValid(int slot) {
+        int at = offset(slot);
+        int length = map.getInt(at + 8);
+        if (map.getLong(at) <= 0 || length < 0 || length > slotSize - SLOT_HEADER) return false;
+        crc.reset();
+        crc.update(map.duplicate().position(at + SLOT_HEADER).limit(at + SLOT_HEADER + length));
+        return (int) crc.getValue() == map.getInt(at + 12);
+    }
+
+    private int offset(int slot) {
+        return HEADER + slot * slotSize;
+    }
+}
@@ -3,10 +3,16 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferStrategy;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.Scanner;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The client has 3 threads:
@@ -18,17 +24,39 @@ public class Client {
     // todo check if the player is stil in the list. if it's not, then end game.
     private Socket socket;
     private BufferedWriter out;
-    private BufferedReader in;
+    private InputStream in;
+    private DataInputStream binaryIn;  // replaces `in` when the binary protocol is used
+    private Writer input;  // where the DataSender writes its lines: `out`, or with UDP an InputWriter
+    private DatagramChannel datagrams;  // UDP only, connected to the server
+    private DatagramProtocol.InputWriter datagramOut;
     private static final int SEND_DELAY = 15;
     private static final int RECEIVE_DELAY = 10;
+    private static final int KEEPALIVE_DELAY = 1000;  // compact input: resend unchanged buttons this often
 
     private String name;
     private Player player;
+    private volatile int playerId = -1;  // only known with the binary protocol
+    private ConcurrentHashMap<Integer, String> roster = new ConcurrentHashMap<>();  // player names by id, binary protocol only
 
-    private CopyOnWriteArrayList<Player> players = new CopyOnWriteArrayList<>();
-    private CopyOnWriteArrayList<Enemy> enemies = new CopyOnWriteArrayList<>();
+    // delta snapshots: the ones applied recently (by seq), and the newest one to acknowledge
+    private static final int HISTORY_SIZE = 64;
+    private WorldSnapshot[] baselines = new WorldSnapshot[HISTORY_SIZE];
+    private volatile int ackSeq = -1;
 
-    private boolean gameOver = false;
+    // prediction of the local player, see Prediction
+    private final Prediction prediction = new Prediction();
+    private volatile long tickNanos = 15_000_000L;  // the server's tick, from WELCOME
+    private int ackTick = Integer.MIN_VALUE;  // the last INPUT_ACK, waiting for its snapshot. Receiver only.
+    private int ackInputSeq, ackInputTicks;
+
+    // delta snapshots, drawn INTERPOLATION_DELAY in the past, see SnapshotBuffer
+    private final SnapshotBuffer snapshotBuffer = new SnapshotBuffer();
+
+    private final ClientWorld world = new ClientWorld();  // the latest game state, see ClientWorld
+    private long receivedNanos;  // when the game state being decoded was read from the socket. Receiver only.
+    private volatile int framesSkipped = 0;  // game states dropped unread (LATEST_SNAPSHOT), or lost or stale (UDP)
+
+    boolean gameOver = false;
 
     /**
      * Connects to the server,
@@ -36,11 +64,24 @@ public class Client {
      * then starts the sender and receiver threads.
      */
     private Client() {
+        Textures.loadAll();  // decode every texture once, before any sprite is created
+
         try {
             socket = new Socket(HOST_NAME, PORT_NUM);
             System.out.println("successfully connected to : " + socket.getRemoteSocketAddress());
             out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            input = out;
+            if (UDP) {
+                var server = new InetSocketAddress(HOST_NAME, PORT_NUM);
+                datagrams = DatagramChannel.open().connect(server);
+                datagramOut = new DatagramProtocol.InputWriter(new LinkSimulator(datagrams), server);
+                input = datagramOut;
+            }
+            if (BINARY_PROTOCOL) {
+                binaryIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            } else {
+                in = socket.getInputStream();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -49,6 +90,13 @@ public class Client {
         g.setUpFrame();
     }
 
+    /**
+     * A client that is not connected and has no window, it only decodes game states. Used by BenchmarkWorld.
+     */
+    Client(String name) {
+        this.name = name;
+    }
+
     /**
      * playerActions = a string of booleans that corresponds to player movement
      * PLAYER ACTIONS FORMAT: [movingUp] [movingDown] [movingLeft] [movingRight] [isFiring]
@@ -72,22 +120,71 @@ public class Client {
             playerActions.append("\n");
         }
 
+        // compact input: the buttons last sent, their sequence number and when
+        private int sentButtons = -1;
+        private int inputSeq = -1;
+        private long sentButtonsAt;
+
+        /**
+         * Sends the buttons as "I [seq] [buttons]" if they changed, or if nothing was sent for KEEPALIVE_DELAY.
+         * See Server.processData for the format. With prediction, this runs once per tick and also moves the ship.
+         */
+        void sendButtons() throws IOException {
+            int buttons = player.buttons();
+            if (buttons != sentButtons) inputSeq++;
+            if (PREDICTION) prediction.step(inputSeq, buttons);
+
+            long now = System.currentTimeMillis();
+            // over UDP they are sent every time, a lost packet would otherwise lose the change until the keepalive
+            if (!UDP && buttons == sentButtons && now - sentButtonsAt < KEEPALIVE_DELAY) {
+                input.flush();  // an ACK may be waiting
+                return;
+            }
+            input.write("I " + inputSeq + " " + buttons + "\n");
+            input.flush();
+            sentButtons = buttons;
+            sentButtonsAt = now;
+        }
+
         @Override
         public void run() {
             try {
-                out.write(name);
+                var hello = new Handshake();
+                hello.name = name;
+                hello.binary = BINARY_PROTOCOL;
+                hello.delta = DELTA_SNAPSHOTS;
+                hello.compactInput = COMPACT_INPUT;
+                hello.udp = UDP;
+                hello.room = ROOM;
+                out.write(hello.toString());
                 out.newLine();
                 out.flush();
                 System.out.println("name sent");
+                int sentAckSeq = -1;
+                long nextTick = System.nanoTime();
                 while (true) {
-                    Thread.sleep(SEND_DELAY);
+                    if (PREDICTION) {
+                        // one step per server tick, on the same fixed schedule
+                        nextTick += tickNanos;
+                        long wait = nextTick - System.nanoTime();
+                        if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    } else {
+                        Thread.sleep(SEND_DELAY);
+                    }
+                    int seq = ackSeq;
+                    if (seq != sentAckSeq) {
+                        input.write("ACK " + seq + "\n");
+                        sentAckSeq = seq;
+                    }
                     if (gameOver) {
                         out.write("DISCONNECT");
                         out.flush();
+                    } else if (COMPACT_INPUT) {
+                        sendButtons();
                     } else {
                         getPlayerActions();
-                        out.write(playerActions.toString());
-                        out.flush();
+                        input.write(playerActions.toString());
+                        input.flush();
                     }
                     playerActions.delete(0, playerActions.length());
                 }
@@ -105,24 +202,315 @@ public class Client {
         @Override
         public void run() {
             try {
-                String line;
-                StringBuilder data = new StringBuilder();
-
-                while ((line = in.readLine()) != null) {
-                    data.append(line);
-                    data.append("\n");
-                    if (line.equals("STOP")) {
-                        processData(data.toString());
-                        data.delete(0, data.length());
+                if (BINARY_PROTOCOL) {
+                    receiveBinary();
+                    return;
+                }
+
+                receiveText();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Reads the text game states into one reusable buffer, and decodes each one in place once its STOP line is in.
+         * With LATEST_SNAPSHOT, drains the socket first and decodes only the newest complete game state,
+         * but never drops more than MAX_SKIPPED_IN_A_ROW in a row, so a steady stream still gets drawn.
+         */
+        private void receiveText() throws IOException, InterruptedException {
+            byte[] buffer = new byte[64 * 1024];
+            int start = 0, end = 0;  // unprocessed bytes
+            int scan = 0;  // lines before this have been checked for STOP
+            int newest = -1;  // LATEST_SNAPSHOT: the end of the newest complete game state, [start, newest) is it
+            int skipped = 0;  // LATEST_SNAPSHOT: game states dropped since the last one decoded
+
+            while (true) {
+                if (end == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                int n = in.read(buffer, end, buffer.length - end);
+                if (n < 0) return;
+                end += n;
+                long now = System.nanoTime();
+
+                // every complete game state in the buffer
+                for (int i = scan; i < end; i++) {
+                    if (buffer[i] != '\n') continue;
+                    if (i - scan == 4 && buffer[scan] == 'S' && buffer[scan + 1] == 'T' && buffer[scan + 2] == 'O'
+                            && buffer[scan + 3] == 'P') {
+                        receivedNanos = now;
+                        if (LATEST_SNAPSHOT) {
+                            if (newest >= 0) {
+                                framesSkipped++;
+                                skipped++;
+                                start = newest;
+                            }
+                            newest = i + 1;
+                        } else {
+                            processData(buffer, start, i + 1);
+                            start = i + 1;
+                            Thread.sleep(RECEIVE_DELAY);
+                        }
+                    }
+                    scan = i + 1;
+                }
+                // more is already here: read it before decoding, unless that has dropped too many in a row
+                if (newest >= 0 && (in.available() == 0 || skipped >= MAX_SKIPPED_IN_A_ROW)) {
+                    processData(buffer, start, newest);
+                    start = newest;
+                    newest = -1;
+                    skipped = 0;
+                }
+
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    scan -= start;
+                    if (newest >= 0) newest -= start;
+                    start = 0;
+                }
+            }
+        }
+
+        /**
+         * Reads length-prefixed frames into one reusable buffer and decodes them in place.
+         *
+         * With LATEST_SNAPSHOT, a snapshot frame is only decoded once nothing more is waiting on the socket,
+         * or once MAX_SKIPPED_IN_A_ROW were dropped for it; if another snapshot comes in first, the older one
+         * is dropped unread. Other frames are decoded right away.
+         * An INPUT_ACK is about the snapshot after it, so the one before is never decoded after it.
+         */
+        private void receiveBinary() throws IOException, InterruptedException {
+            byte[] frame = new byte[64 * 1024];
+            ByteBuffer data = ByteBuffer.wrap(frame);
+            byte[] pending = new byte[64 * 1024];  // LATEST_SNAPSHOT: the newest snapshot frame, not decoded yet
+            ByteBuffer pendingData = ByteBuffer.wrap(pending);
+            boolean hasPending = false;
+            int skipped = 0;  // snapshots dropped since the last one decoded
+
+            while (true) {
+                int length = binaryIn.readInt();
+                if (length > frame.length) {
+                    frame = new byte[Integer.highestOneBit(length) * 2];
+                    data = ByteBuffer.wrap(frame);
+                }
+                binaryIn.readFully(frame, 0, length);
+                data.clear();
+                data.limit(length);
+
+                if (!LATEST_SNAPSHOT) {
+                    receivedNanos = System.nanoTime();
+                    if (processBinaryData(data)) {
                         Thread.sleep(RECEIVE_DELAY);
                     }
+                    continue;
                 }
-            } catch (Exception e) {
+
+                byte type = frame[0];
+                if (type == BinaryProtocol.SNAPSHOT || type == BinaryProtocol.DELTA) {
+                    if (hasPending) {
+                        framesSkipped++;
+                        skipped++;
+                    }
+                    var swap = pending;
+                    pending = frame;
+                    frame = swap;
+                    var swapData = pendingData;
+                    pendingData = data;
+                    data = swapData;
+                    hasPending = true;
+                    receivedNanos = System.nanoTime();
+                } else {
+                    processBinaryData(data);
+                }
+                if (hasPending && type != BinaryProtocol.INPUT_ACK
+                        && (binaryIn.available() == 0 || skipped >= MAX_SKIPPED_IN_A_ROW)) {
+                    processBinaryData(pendingData);
+                    hasPending = false;
+                    skipped = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the snapshots that come over UDP, see DatagramProtocol.
+     * The DataReceiver still reads the TCP connection, which then only carries WELCOME and ROSTER frames,
+     * so the two threads never decode the same kind of frame.
+     */
+    class DatagramReceiver implements Runnable {
+        @Override
+        public void run() {
+            var packet = ByteBuffer.allocate(DatagramProtocol.MAX_PACKET);
+            var messages = new DatagramProtocol.Reassembler();
+            byte[] frame = new byte[64 * 1024];
+            ByteBuffer data = ByteBuffer.wrap(frame);
+            try {
+                while (true) {
+                    packet.clear();
+                    datagrams.receive(packet);
+                    packet.flip();
+                    var message = messages.add(packet);
+                    if (message == null) continue;
+                    framesSkipped = messages.stale + messages.incomplete;
+
+                    // the same frames as on TCP, copied out so they start at 0 like there
+                    receivedNanos = System.nanoTime();
+                    while (message.remaining() >= 4) {
+                        int length = message.getInt();
+                        if (length > frame.length) {
+                            frame = new byte[Integer.highestOneBit(length) * 2];
+                            data = ByteBuffer.wrap(frame);
+                        }
+                        message.get(frame, 0, length);
+                        data.clear();
+                        data.limit(length);
+                        processBinaryData(data);
+                    }
+                }
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Decodes one BinaryProtocol frame, see BinaryProtocol for the format.
+     * @return true if the frame was a snapshot
+     */
+    private boolean processBinaryData(ByteBuffer data) {
+        byte type = data.get();
+        if (type == BinaryProtocol.WELCOME) {
+            playerId = BinaryProtocol.getVarInt(data);
+            if (data.hasRemaining()) tickNanos = BinaryProtocol.getVarInt(data) * 1000L;
+            // UDP packets can be sent from now on, if the server could open its UDP port
+            if (datagramOut != null && data.remaining() >= 8) datagramOut.welcome(playerId, data.getLong());
+            return false;
+        } else if (type == BinaryProtocol.INPUT_ACK) {
+            ackTick = data.getInt();
+            ackInputSeq = BinaryProtocol.getSignedVarInt(data);
+            ackInputTicks = BinaryProtocol.getVarInt(data);
+            return false;
+        } else if (type == BinaryProtocol.ROSTER) {
+            roster.clear();
+            int numPlayers = data.getInt();
+            for (int i = 0; i < numPlayers; i++) {
+                int id = BinaryProtocol.getVarInt(data);
+                int length = BinaryProtocol.getVarInt(data);
+                roster.put(id, new String(data.array(), data.position(), length, StandardCharsets.UTF_8));
+                data.position(data.position() + length);
+            }
+            return false;
+        } else if (type == BinaryProtocol.DELTA) {
+            int baselineSeq = data.getInt(data.position() + 8);
+            WorldSnapshot baseline = null;
+            if (baselineSeq >= 0) {
+                baseline = baselines[baselineSeq % HISTORY_SIZE];
+                // we no longer have it. Skip frames until the server gives up on that baseline and sends everything.
+                if (baseline == null || baseline.seq != baselineSeq) return false;
+            }
+
+            var snapshot = WorldSnapshot.readDelta(data, baseline);
+            baselines[snapshot.seq % HISTORY_SIZE] = snapshot;
+            ackSeq = snapshot.seq;
+            processSnapshot(snapshot);
+            return true;
+        } else if (type != BinaryProtocol.SNAPSHOT) {
+            return false;  // unknown frame, skip it
+        }
+
+        var frame = world.back();
+        frame.receivedNanos = receivedNanos;
+        boolean inGame = false;
+        int numPlayers = data.getInt();
+        for (int i = 0; i < numPlayers; i++) {
+            int id = BinaryProtocol.getVarInt(data);
+            int playerX = BinaryProtocol.getSignedVarInt(data);
+            int playerY = BinaryProtocol.getSignedVarInt(data);
+            addPlayer(frame, id, playerX, playerY);
+            if (id == playerId) {
+                inGame = true;
+                reconcile(-1, playerX, playerY);
+            }
+        }
+
+        // if player isn't there anymore, GAME OVER..
+        if (!inGame && playerId >= 0) {
+            gameOver = true;
+            return true;
+        }
+
+        int numMissiles = data.getInt();
+        for (int i = 0; i < numMissiles; i++) {
+            int owner = BinaryProtocol.getVarInt(data);
+            int missileX = BinaryProtocol.getSignedVarInt(data);
+            int missileY = BinaryProtocol.getSignedVarInt(data);
+            frame.addMissile(owner, missileX, missileY);
+        }
+
+        int numEnemies = data.getInt();
+        for (int i = 0; i < numEnemies; i++) {
+            int enemyX = BinaryProtocol.getSignedVarInt(data);
+            int enemyY = BinaryProtocol.getSignedVarInt(data);
+            frame.addEnemy(enemyX, enemyY);
+        }
+        world.publish();
+        return true;
+    }
+
+    /**
+     * Adds a player to the frame, and looks its name up only if the slot held someone else before.
+     */
+    private void addPlayer(ClientWorld.Frame frame, int id, int x, int y) {
+        int slot = frame.addPlayer(id, x, y);
+        if (frame.playerName[slot] == null) frame.playerName[slot] = roster.get(id);  // null until the ROSTER arrives
+    }
+
+    /**
+     * Corrects the prediction with the local player's position in a snapshot, if the INPUT_ACK before it
+     * was for the same tick (-1 when the frame doesn't say).
+     */
+    private void reconcile(int tick, int x, int y) {
+        if (!PREDICTION || ackTick == Integer.MIN_VALUE) return;
+        if (tick >= 0 && tick != ackTick) return;
+        prediction.reconcile(ackInputSeq, ackInputTicks, x, y);
+        ackTick = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Rebuilds the game from a snapshot that was decoded from a DELTA frame.
+     */
+    private void processSnapshot(WorldSnapshot snapshot) {
+        if (INTERPOLATION) snapshotBuffer.add(snapshot, System.nanoTime(), tickNanos);
+        var frame = world.back();
+        frame.receivedNanos = receivedNanos;
+        boolean inGame = false;
+        var p = snapshot.players;
+        for (int i = 0; i < p.count; i++) {
+            addPlayer(frame, p.id[i], p.x[i], p.y[i]);
+            if (p.id[i] == playerId) {
+                inGame = true;
+                reconcile(snapshot.tick, p.x[i], p.y[i]);
+            }
+        }
+
+        // if player isn't there anymore, GAME OVER..
+        if (!inGame && playerId >= 0) {
+            gameOver = true;
+            return;
+        }
+
+        var m = snapshot.missiles;
+        for (int i = 0; i < m.count; i++) {
+            frame.addMissile(m.owner[i], m.x[i], m.y[i]);
+        }
+
+        var e = snapshot.enemies;
+        for (int i = 0; i < e.count; i++) {
+            frame.addEnemy(e.x[i], e.y[i]);
+        }
+        world.publish();
+    }
+
     /**
      * Send the current game state to each of the clients every X milliseconds.
      *
@@ -154,175 +542,339 @@ public class Client {
      * STOP
      * ------------------------------------------------------------------------------------------------------------
      */
-    private void processData(String data) {
-        Scanner in = new Scanner(data);
-        enemies.clear();
-        players.clear();
+    void processData(byte[] data, int from, int to) {
+        var text = textCursor;
+        text.data = data;
+        text.pos = from;
+        text.end = to;
+
+        var frame = world.back();
+        frame.receivedNanos = receivedNanos;
         int numPlayers = 0;
-        while (in.hasNextLine()) {
-            String line = in.nextLine();
-            if (line.equals("PLAYERS")) {
-                numPlayers = Integer.parseInt(in.nextLine());
+        while (text.pos < text.end) {
+            if (text.line("PLAYERS")) {
+                numPlayers = text.nextInt();
+                text.nextLine();
+                boolean inGame = false;
                 for (int i = 0; i < numPlayers; i++) {
-                    var playerInfo = in.nextLine().split(" ");
-                    String playerName = playerInfo[0];
-                    int playerX = Integer.parseInt(playerInfo[1]);
-                    int playerY = Integer.parseInt(playerInfo[2]);
-
-                    // Look for this player in the array list.
-                    // if it's there, then update the x and y
-                    // if it's not there, then add it
-
-                    Player player = new Player(playerX, playerY);
-                    player.setName(playerName);
-                    players.add(player);
+                    // [name] [x] [y]. Text states have no player ids, the slot stands in for one.
+                    int nameStart = text.pos;
+                    int nameEnd = text.skipWord();
+                    int slot = frame.addPlayer(i, text.nextInt(), text.nextInt());
+                    text.nextLine();
+                    if (!text.equals(frame.playerName[slot], nameStart, nameEnd)) {
+                        frame.playerName[slot] = new String(data, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8);
+                    }
+                    if (frame.playerName[slot].equals(name)) inGame = true;
                 }
 
                 // todo fix this. sometimes it bugs at start
                 // if player isn't there anymore, GAME OVER..
-                boolean inGame = false;
-                for (Player p: players) {
-                    if (p.getName().equals(name)) {
-                        inGame = true;
-                        break;
-                    }
-                }
-
                 if (!inGame) {
                     gameOver = true;
-                    break;
+                    return;
                 }
-            } else if(line.equals("PLAYER MISSILES")) {
+            } else if (text.line("PLAYER MISSILES")) {
+                // one line per player, in the same order as PLAYERS: [name] [K] [x1] [y1] ... [xK] [yK]
                 for (int i = 0; i < numPlayers; i++) {
-                    var missilesLine = in.nextLine().split(" ");
-                    String playerName = missilesLine[0];
-                    int numMissiles = Integer.parseInt(missilesLine[1]);
-
-                    // add the missiles to the player
-                    if (numMissiles > 0) {
-                        for (Player p : players) {
-                            if (p.getName().equals(playerName)) {
-                                for (int j = 2; j < 2 + numMissiles * 2; j = j + 2) {
-                                    int missileX = Integer.parseInt(missilesLine[j]);
-                                    int missileY = Integer.parseInt(missilesLine[j + 1]);
-                                    p.addMissile(new Missile(missileX, missileY));
-                                }
-                                break;
-                            }
-                        }
+                    text.skipWord();
+                    int numMissiles = text.nextInt();
+                    for (int j = 0; j < numMissiles; j++) {
+                        frame.addMissile(i, text.nextInt(), text.nextInt());
                     }
+                    text.nextLine();
                 }
-            } else if (line.equals("ENEMIES")){
-                int numEnemies = Integer.parseInt(in.nextLine());
+            } else if (text.line("ENEMIES")) {
+                int numEnemies = text.nextInt();
+                text.nextLine();
                 for (int i = 0; i < numEnemies; i++) {
-                    var enemyInfo = in.nextLine().split(" ");
-                    int enemyX = Integer.parseInt(enemyInfo[0]);
-                    int enemyY = Integer.parseInt(enemyInfo[1]);
-
-                    Enemy e = new Enemy(enemyX, enemyY);
-                    enemies.add(e);
+                    frame.addEnemy(text.nextInt(), text.nextInt());
+                    text.nextLine();
                 }
-            } // if "END", just ignore
+            } else {
+                text.nextLine();  // START, STOP
+            }
         }
+        world.publish();
     }
-    
+
+    private final TextCursor textCursor = new TextCursor();
+
+    /**
+     * Reads words and numbers from a text game state in place, without making Strings.
+     */
+    private static final class TextCursor {
+        byte[] data;
+        int pos, end;
+
+        /** True, and skips the line, if the next line is exactly this one. */
+        boolean line(String line) {
+            int n = line.length();
+            if (pos + n > end || (pos + n < end && data[pos + n] != '\n')) return false;
+            for (int i = 0; i < n; i++) {
+                if (data[pos + i] != line.charAt(i)) return false;
+            }
+            pos = Math.min(end, pos + n + 1);
+            return true;
+        }
+
+        void nextLine() {
+            while (pos < end && data[pos] != '\n') pos++;
+            pos = Math.min(end, pos + 1);
+        }
+
+        /** Skips a word and the space after it. @return where the word ended */
+        int skipWord() {
+            while (pos < end && data[pos] != ' ' && data[pos] != '\n') pos++;
+            int wordEnd = pos;
+            if (pos < end && data[pos] == ' ') pos++;
+            return wordEnd;
+        }
+
+        int nextInt() {
+            while (pos < end && data[pos] == ' ') pos++;
+            boolean negative = pos < end && data[pos] == '-';
+            if (negative) pos++;
+            int value = 0;
+            while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+                value = value * 10 + (data[pos++] - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        /** True if s is the (ASCII) text in data[from, to). */
+        boolean equals(String s, int from, int to) {
+            if (s == null || s.length() != to - from) return false;
+            for (int i = 0; i < s.length(); i++) {
+                if (data[from + i] != s.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+
     class GameFrame extends JFrame {
-        GamePanel gamePanel = new GamePanel();
-        
+        // name labels and the game over message, drawn as cached images. Used by the one thread that draws.
+        private final Labels names = new Labels(new Font(Font.DIALOG, Font.PLAIN, 12), Color.white);
+        private final Labels messages = new Labels(new Font("Arial", Font.BOLD, 20), Color.white);
+
+        // the overlay in the corner: frames per second, how long they took to draw (average and worst),
+        // how old the game state was when drawn (average) and how many were skipped. Redrawn once a second.
+        private final Labels statsLabels = new Labels(new Font(Font.MONOSPACED, Font.PLAIN, 12), Color.green);
+        private Image stats;
+        private int frames, agedFrames;
+        private long statsSince = System.nanoTime(), drawNanos, maxDrawNanos, ageNanos;
+
         void setUpFrame() {
             setVisible(true);
             setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
             setSize(DEFAULT_WIDTH, DEFAULT_HEIGHT);
 
-            this.getContentPane().add(gamePanel);
+            if (ACTIVE_RENDERING) {
+                setIgnoreRepaint(true);
+                var canvas = new GameCanvas();
+                this.getContentPane().add(canvas);
+                validate();  // the canvas needs its size and peer before it can get a buffer strategy
+                canvas.start();
+            } else {
+                this.getContentPane().add(new GamePanel());
+            }
+        }
+
+        /**
+         * Asks for the name, then starts the sender and receiver threads.
+         */
+        private void startGame() {
+            name = JOptionPane.showInputDialog("Enter your name:");
+            player = new Player(PLAYER_START_X, PLAYER_START_Y);  // holds the buttons the DataSender sends
+            player.setName(name);
+
+            var sender = new Thread(new DataSender());  // send data
+            var receiving = new Thread(new DataReceiver());  // receive data
+            sender.start();
+            receiving.start();
+            if (UDP) new Thread(new DatagramReceiver()).start();  // receive snapshots
+        }
+
+        private KeyAdapter keys() {
+            return new KeyAdapter() {
+                @Override
+                public void keyPressed(KeyEvent e) {
+                    int k = e.getKeyCode();
+
+                    switch (k) {
+                        case KeyEvent.VK_W:
+                            player.isMovingUp = true;
+                            break;
+                        case KeyEvent.VK_A:
+                            player.isMovingLeft = true;
+                            break;
+                        case KeyEvent.VK_S:
+                            player.isMovingDown = true;
+                            break;
+                        case KeyEvent.VK_D:
+                            player.isMovingRight = true;
+                            break;
+                        case KeyEvent.VK_SPACE:
+                            player.isFiring = true;
+                    }
+                }
+
+                @Override
+                public void keyReleased(KeyEvent e) {
+                    int k = e.getKeyCode();
+
+                    switch (k) {
+                        case KeyEvent.VK_W:
+                            player.isMovingUp = false;
+                            break;
+                        case KeyEvent.VK_A:
+                            player.isMovingLeft = false;
+                            break;
+                        case KeyEvent.VK_S:
+                            player.isMovingDown = false;
+                            break;
+                        case KeyEvent.VK_D:
+                            player.isMovingRight = false;
+                            break;
+                        case KeyEvent.VK_SPACE:
+                            player.isFiring = false;
+                    }
+                }
+            };
+        }
+
+        /**
+         * Draws the game: interpolated if possible, else as of the last game state, then the game over message.
+         * @return when what was drawn arrived (for interpolated positions, the local time they were sampled at),
+         * 0 if there was no game state yet
+         */
+        private long draw(Graphics2D g2d) {
+            long shown;
+            long sampleTime = System.nanoTime() - INTERPOLATION_DELAY;
+            if (INTERPOLATION && snapshotBuffer.sample(sampleTime)) {
+                drawInterpolated(g2d);
+                shown = sampleTime;
+            } else {
+                shown = drawLatest(g2d);
+            }
+
+            if (gameOver) {
+                String gameOverMsg = "GAME OVER";
+                int stringWidth = messages.width(gameOverMsg);
+                g2d.drawImage(messages.get(gameOverMsg), DEFAULT_WIDTH/2 - stringWidth/2, DEFAULT_HEIGHT/2 - messages.ascent(), null);
+            }
+            return shown;
+        }
+
+        /**
+         * Draws the game as of the last game state received.
+         * @return when that game state arrived, 0 if there is none yet
+         */
+        private long drawLatest(Graphics2D g2d) {
+            if (!world.hasFrame()) return 0;
+            var f = world.front();
+            for (int i = 0; i < f.missiles; i++) {
+                g2d.drawImage(Textures.get(SpriteType.MISSILE), f.missileX[i], f.missileY[i], null);
+            }
+            for (int i = 0; i < f.players; i++) {
+                int x = f.playerX[i], y = f.playerY[i];
+                if (PREDICTION && f.playerId[i] == playerId && prediction.isReady()) {
+                    // our own ship is drawn where our inputs put it, not where the last snapshot saw it
+                    x = prediction.getX();
+                    y = prediction.getY();
+                }
+                g2d.drawImage(Textures.get(SpriteType.PLAYER), x, y, null);
+                drawName(g2d, f.playerName[i], x, y);
+            }
+            for (int i = 0; i < f.enemies; i++) {
+                g2d.drawImage(Textures.get(SpriteType.ENEMY), f.enemyX[i], f.enemyY[i], null);
+            }
+            return f.receivedNanos;
+        }
+
+        /**
+         * Draws the positions snapshotBuffer just sampled.
+         */
+        private void drawInterpolated(Graphics2D g2d) {
+            var m = snapshotBuffer.missiles;
+            for (int i = 0; i < m.count; i++) {
+                g2d.drawImage(Textures.get(SpriteType.MISSILE), m.x[i], m.y[i], null);
+            }
+            var p = snapshotBuffer.players;
+            for (int i = 0; i < p.count; i++) {
+                int x = p.x[i], y = p.y[i];
+                if (PREDICTION && p.id[i] == playerId && prediction.isReady()) {
+                    x = prediction.getX();
+                    y = prediction.getY();
+                }
+                g2d.drawImage(Textures.get(SpriteType.PLAYER), x, y, null);
+                drawName(g2d, roster.get(p.id[i]), x, y);
+            }
+            var e = snapshotBuffer.enemies;
+            for (int i = 0; i < e.count; i++) {
+                g2d.drawImage(Textures.get(SpriteType.ENEMY), e.x[i], e.y[i], null);
+            }
+        }
+
+        /**
+         * Counts a frame that was drawn from start to end for the overlay.
+         * @param shownNanos what draw returned for it: the age is taken from the game state actually drawn,
+         *                   the receiver may have published a newer one since
+         */
+        private void frameDrawn(long start, long end, long shownNanos) {
+            frames++;
+            drawNanos += end - start;
+            maxDrawNanos = Math.max(maxDrawNanos, end - start);
+            if (shownNanos != 0) {
+                agedFrames++;
+                ageNanos += end - shownNanos;
+            }
+            if (end - statsSince < 1_000_000_000L) return;
+
+            double fps = frames * 1e9 / (end - statsSince);
+            stats = statsLabels.render(String.format("%.0f fps  %.2f ms avg  %.2f ms max  age %.1f ms  skipped %d",
+                    fps, drawNanos / 1e6 / frames, maxDrawNanos / 1e6,
+                    agedFrames > 0 ? ageNanos / 1e6 / agedFrames : 0.0, framesSkipped));
+            frames = agedFrames = 0;
+            drawNanos = maxDrawNanos = ageNanos = 0;
+            statsSince = end;
+        }
+
+        private void drawStats(Graphics2D g2d) {
+            if (stats == null) return;
+            g2d.setColor(Color.black);  // the passive panel doesn't clear behind it
+            g2d.fillRect(4, 4, stats.getWidth(null), stats.getHeight(null));
+            g2d.drawImage(stats, 4, 4, null);
+        }
+
+        /** Draws name with its baseline at y, like drawString. */
+        private void drawName(Graphics2D g2d, String name, int x, int y) {
+            if (name != null) g2d.drawImage(names.get(name), x, y - names.ascent(), null);
         }
 
+        /**
+         * Passive rendering: a thread asks Swing to repaint every GAME_DELAY, and the EDT paints when it gets to it.
+         */
         private class GamePanel extends JPanel implements Runnable {
             private final int GAME_DELAY = 20;
 
             GamePanel() {
                 setBackground(Color.black);
                 setFocusable(true);
-                addListeners();
+                addKeyListener(keys());
 
                 var animator = new Thread(this);
                 animator.start();
             }
 
-
-            private void addListeners() {
-                addKeyListener(new KeyAdapter() {
-                    @Override
-                    public void keyPressed(KeyEvent e) {
-                        int k = e.getKeyCode();
-
-                        switch (k) {
-                            case KeyEvent.VK_W:
-                                player.isMovingUp = true;
-                                break;
-                            case KeyEvent.VK_A:
-                                player.isMovingLeft = true;
-                                break;
-                            case KeyEvent.VK_S:
-                                player.isMovingDown = true;
-                                break;
-                            case KeyEvent.VK_D:
-                                player.isMovingRight = true;
-                                break;
-                            case KeyEvent.VK_SPACE:
-                                player.isFiring = true;
-                        }
-                    }
-
-                    @Override
-                    public void keyReleased(KeyEvent e) {
-                        int k = e.getKeyCode();
-
-                        switch (k) {
-                            case KeyEvent.VK_W:
-                                player.isMovingUp = false;
-                                break;
-                            case KeyEvent.VK_A:
-                                player.isMovingLeft = false;
-                                break;
-                            case KeyEvent.VK_S:
-                                player.isMovingDown = false;
-                                break;
-                            case KeyEvent.VK_D:
-                                player.isMovingRight = false;
-                                break;
-                            case KeyEvent.VK_SPACE:
-                                player.isFiring = false;
-                        }
-                    }
-                });
-            }
-
             @Override
             public void run() {
                 // ask for name and send it
-                // then add the player to the list
-                name = JOptionPane.showInputDialog("Enter your name:");
-                player = new Player(PLAYER_START_X, PLAYER_START_Y);
-                player.setName(name);
-                players.add(player);
-
-                var sender = new Thread(new DataSender());  // send data
-                var receiving = new Thread(new DataReceiver());  // receive data
-                sender.start();
-                receiving.start();
-
-                // this loop:
-                // moves objects (to hide latency & repaints
-                while (true) {
-                    for (Player p: players) {
-                        p.move();
-                    }
-                    for (Enemy e: enemies) {
-                        e.move();
-                    }
+                startGame();
 
-                    if (players.size() > 0) {
+                // this loop repaints
+                while (true) {
+                    if (world.hasFrame()) {
                         repaint();
                     }
                     if (gameOver) {
@@ -340,32 +892,89 @@ public class Client {
 
             }
 
-
             @Override
             protected void paintComponent(Graphics g) {
-                // Draw everything in the game ArrayLists
-                Graphics2D g2d = (Graphics2D)g;
-                g2d.setColor(Color.white);
+                long start = System.nanoTime();
+                long shown = draw((Graphics2D) g);
+                frameDrawn(start, System.nanoTime(), shown);
+                drawStats((Graphics2D) g);
+            }
+        }
 
-                for (Player p : players) {
-                    for (Missile m: p.missiles) {
-                        g2d.drawImage(m.getImage(), m.getX(), m.getY(), this);
-                    }
-                    g2d.drawImage(p.getImage(), p.getX(), p.getY(), this);
-                    g2d.drawString(p.getName(), p.getX(), p.getY());
-                }
-                for (Enemy e : enemies) {
-                    g2d.drawImage(e.getImage(), e.getX(), e.getY(), this);
+        /**
+         * Active rendering (-Dnewgame.activeRendering=true): a render thread draws every frame itself into a
+         * BufferStrategy and shows it, paced to FRAME_NANOS on System.nanoTime. Swing doesn't paint the game at all.
+         *
+         */
+        @SuppressWarnings("serial")  // never serialized
+        private class GameCanvas extends Canvas implements Runnable {
+            GameCanvas() {
+                setBackground(Color.black);
+                setIgnoreRepaint(true);
+                setFocusable(true);
+                addKeyListener(keys());
+            }
+
+            /**
+             * Creates the buffer strategy and starts the render thread. The canvas must be showing.
+             */
+            void start() {
+                try {
+                    // page flipping, where the platform can do it (usually only full screen)
+                    createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true),
+                            BufferCapabilities.FlipContents.UNDEFINED));
+                } catch (AWTException e) {
+                    createBufferStrategy(2);  // the best the platform has, usually blitting from an accelerated back buffer
                 }
+                requestFocus();
+                new Thread(this, "renderer").start();
+            }
+
+            @Override
+            public void run() {
+                startGame();
 
-                if (gameOver) {
-                    String gameOverMsg = "GAME OVER";
-                    Font f = new Font("Arial", Font.BOLD, 20);
-                    g2d.setFont(f);
-                    int stringWidth = g2d.getFontMetrics(f).stringWidth(gameOverMsg);
-                    g2d.drawString(gameOverMsg,DEFAULT_WIDTH/2 - stringWidth/2, DEFAULT_HEIGHT/2);
+                var strategy = getBufferStrategy();
+                long nextFrame = System.nanoTime();
+                while (true) {
+                    long start = System.nanoTime();
+                    long shown = render(strategy);
+                    frameDrawn(start, System.nanoTime(), shown);
+
+                    if (FRAME_NANOS > 0) {
+                        nextFrame += FRAME_NANOS;
+                        long wait = nextFrame - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);  // Thread.sleep would round to whole milliseconds
+                        } else if (wait < -FRAME_NANOS) {
+                            nextFrame = System.nanoTime();  // more than a frame late: drop it rather than rush to catch up
+                        }
+                    }
                 }
             }
+
+            /**
+             * @return what draw returned for the frame shown
+             */
+            private long render(BufferStrategy strategy) {
+                long shown;
+                do {
+                    do {
+                        var g2d = (Graphics2D) strategy.getDrawGraphics();
+                        try {
+                            g2d.setColor(Color.black);
+                            g2d.fillRect(0, 0, getWidth(), getHeight());
+                            shown = draw(g2d);
+                            drawStats(g2d);
+                        } finally {
+                            g2d.dispose();
+                        }
+                    } while (strategy.contentsRestored());
+                    strategy.show();
+                } while (strategy.contentsLost());
+                Toolkit.getDefaultToolkit().sync();  // some window systems queue the frame otherwise
+                return shown;
+            }
         }
     }
 
@@ -377,6 +986,22 @@ public class Client {
     static final int DEFAULT_HEIGHT = 600;
     private static final String HOST_NAME = "localhost";
     private static final int PORT_NUM = 6969;
+    private static final String ROOM = System.getProperty("newgame.room");  // -Dnewgame.room=[name], any room if not set
+    private static final boolean DELTA_SNAPSHOTS = Boolean.getBoolean("newgame.delta");  // -Dnewgame.delta=true
+    private static final boolean COMPACT_INPUT = Boolean.getBoolean("newgame.compactInput");  // -Dnewgame.compactInput=true
+    private static final boolean UDP = Boolean.getBoolean("newgame.udp");  // -Dnewgame.udp=true, see DatagramProtocol and LinkSimulator
+    private static final boolean BINARY_PROTOCOL = Boolean.getBoolean("newgame.binary") || DELTA_SNAPSHOTS || UDP;  // -Dnewgame.binary=true
+    // -Dnewgame.interpolationDelay=[ms], 0 draws delta snapshots as they arrive. Should cover two server sends.
+    private static final long INTERPOLATION_DELAY = Integer.getInteger("newgame.interpolationDelay", 60) * 1_000_000L;
+    private static final boolean INTERPOLATION = DELTA_SNAPSHOTS && INTERPOLATION_DELAY > 0;  // needs entity ids and ticks
+    private static final boolean PREDICTION = COMPACT_INPUT && BINARY_PROTOCOL;  // needs input sequence numbers and INPUT_ACK
+    // -Dnewgame.latestSnapshot=true: drain the socket and decode only the newest game state, dropping the older ones
+    private static final boolean LATEST_SNAPSHOT = Boolean.getBoolean("newgame.latestSnapshot");
+    private static final int MAX_SKIPPED_IN_A_ROW = 8;  // then the newest one is decoded even if more are waiting
+    private static final boolean ACTIVE_RENDERING = Boolean.getBoolean("newgame.activeRendering");  // -Dnewgame.activeRendering=true
+    // -Dnewgame.fps=[frames per second], active rendering only. 0 draws as fast as possible.
+    private static final int FPS = Integer.getInteger("newgame.fps", 60);
+    private static final long FRAME_NANOS = FPS > 0 ? 1_000_000_000L / FPS : 0;
     static final int PLAYER_START_X = DEFAULT_WIDTH/2;
     static final int PLAYER_START_Y = DEFAULT_HEIGHT - 100;
 }
@@ -0,0 +1,106 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The game state the client draws, triple-buffered between the receiver and the EDT.
+ *
+ * The receiver fills the back frame in place and publishes it, which swaps it with the middle one.
+ * The EDT swaps the middle frame for its front one whenever a newer one was published. Neither side ever waits
+ * or copies, and the EDT always draws one complete game state.
+ *
+ * Frames keep their arrays from one game state to the next, so once they are big enough updating them doesn't allocate.
+ * Player names are only replaced when a different player shows up in a slot.
+ */
+final class ClientWorld {
+    private static final int DIRTY = 4;  // set on middle when it holds a frame the EDT hasn't taken yet
+    private static final int INDEX = 3;
+
+    private final Frame[] frames = {new Frame(), new Frame(), new Frame()};
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;  // receiver only
+    private int front = 2;  // EDT only
+    private volatile boolean published = false;
+
+    /**
+     * The frame to fill, emptied. Receiver only.
+     */
+    Frame back() {
+        var f = frames[back];
+        f.players = f.missiles = f.enemies = 0;
+        return f;
+    }
+
+    /**
+     * Makes the back frame the newest one. Receiver only.
+     */
+    void publish() {
+        back = middle.getAndSet(back | DIRTY) & INDEX;
+        published = true;
+    }
+
+    /**
+     * The newest complete frame. EDT only; the frame stays valid until the next call.
+     */
+    Frame front() {
+        if ((middle.get() & DIRTY) != 0) front = middle.getAndSet(front) & INDEX;
+        return frames[front];
+    }
+
+    boolean hasFrame() {
+        return published;
+    }
+
+    static final class Frame {
+        int players;
+        int[] playerId = new int[8], playerX = new int[8], playerY = new int[8];
+        String[] playerName = new String[8];
+
+        int missiles;
+        int[] missileOwner = new int[64], missileX = new int[64], missileY = new int[64];
+
+        int enemies;
+        int[] enemyX = new int[64], enemyY = new int[64];
+
+        long receivedNanos;  // when the game state was read from the socket
+
+        /**
+         * @return the slot of the new player. Its name is left from the last frame in this slot, see playerName.
+         */
+        int addPlayer(int id, int x, int y) {
+            if (players == playerId.length) {
+                int size = players * 2;
+                playerId = Arrays.copyOf(playerId, size);
+                playerX = Arrays.copyOf(playerX, size);
+                playerY = Arrays.copyOf(playerY, size);
+                playerName = Arrays.copyOf(playerName, size);
+            }
+            if (playerId[players] != id) playerName[players] = null;
+            playerId[players] = id;
+            playerX[players] = x;
+            playerY[players] = y;
+            return players++;
+        }
+
+        void addMissile(int owner, int x, int y) {
+            if (missiles == missileX.length) {
+                int size = missiles * 2;
+                missileOwner = Arrays.copyOf(missileOwner, size);
+                missileX = Arrays.copyOf(missileX, size);
+                missileY = Arrays.copyOf(missileY, size);
+            }
+            missileOwner[missiles] = owner;
+            missileX[missiles] = x;
+            missileY[missiles++] = y;
+        }
+
+        void addEnemy(int x, int y) {
+            if (enemies == enemyX.length) {
+                int size = enemies * 2;
+                enemyX = Arrays.copyOf(enemyX, size);
+                enemyY = Arrays.copyOf(enemyY, size);
+            }
+            enemyX[enemies] = x;
+            enemyY[enemies++] = y;
+        }
+    }
+}
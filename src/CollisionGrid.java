@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/**
+ * Uniform-grid broad phase over the entities of one EntityStore.
+ *
+ * Each live entity is bucketed by the cell of its top-left corner (a counting sort, so building never allocates
+ * once the arrays are big enough). A query only looks at the cells a hit could come from, then does an integer
+ * AABB test. Entities outside the grid are clamped into the border cells, so nothing is ever missed.
+ *
+ * Cells must be at least as big as the indexed entities.
+ */
+final class CollisionGrid {
+    private final int minX, minY;
+    private final int cellSize;
+    private final int cols, rows;
+
+    private final int[] cellStart;  // items of cell c are items[cellStart[c] .. cellStart[c + 1])
+    private final int[] cursor;
+    private int[] items = new int[0];
+    private int[] cellOf = new int[0];
+
+    private EntityStore store;
+
+    CollisionGrid(int minX, int minY, int width, int height, int cellSize) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.cols = (width + cellSize - 1) / cellSize;
+        this.rows = (height + cellSize - 1) / cellSize;
+        cellStart = new int[cols * rows + 1];
+        cursor = new int[cols * rows];
+    }
+
+    /**
+     * Sizes the grid for stores of up to this capacity, so build doesn't have to.
+     */
+    void reserve(int capacity) {
+        if (items.length < capacity) {
+            items = new int[capacity];
+            cellOf = new int[capacity];
+        }
+    }
+
+    /**
+     * Re-buckets every live entity of the store. Call once per tick, after movement.
+     * Entities killed afterwards stay in their bucket but are skipped by queries.
+     */
+    void build(EntityStore store) {
+        this.store = store;
+        reserve(store.capacity());
+
+        Arrays.fill(cellStart, 0);
+        for (int i = store.next(0); i >= 0; i = store.next(i + 1)) {
+            int c = cell(store.x[i], store.y[i]);
+            cellOf[i] = c;
+            cellStart[c + 1]++;
+        }
+        for (int c = 0; c < cols * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+            cursor[c] = cellStart[c];
+        }
+        for (int i = store.next(0); i >= 0; i = store.next(i + 1)) {
+            items[cursor[cellOf[i]]++] = i;
+        }
+    }
+
+    /**
+     * Finds the live entity with the lowest slot whose hitbox overlaps the given box,
+     * which is the same one a brute-force scan in slot order would find first.
+     *
+     * @return the slot, or -1 if nothing overlaps
+     */
+    int firstHit(int qx, int qy, int qw, int qh) {
+        int w = store.type.width;
+        int h = store.type.height;
+
+        // an entity can only overlap if its corner is in (qx - w, qx + qw) x (qy - h, qy + qh)
+        int c0 = col(qx - w + 1);
+        int c1 = col(qx + qw - 1);
+        int r0 = row(qy - h + 1);
+        int r1 = row(qy + qh - 1);
+
+        int best = -1;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = items[k];
+                    if (best >= 0 && i >= best) continue;
+                    if (!store.isAlive(i)) continue;
+                    int x = store.x[i];
+                    int y = store.y[i];
+                    if (x < qx + qw && qx < x + w && y < qy + qh && qy < y + h) best = i;
+                }
+            }
+        }
+        return best;
+    }
+
+    private int cell(int x, int y) {
+        return row(y) * cols + col(x);
+    }
+
+    private int col(int x) {
+        return Math.max(0, Math.min(cols - 1, Math.floorDiv(x - minX, cellSize)));
+    }
+
+    private int row(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y - minY, cellSize)));
+    }
+}
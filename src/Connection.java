@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * The server's side of one client, independent of the transport that carries it.
+ */
+abstract class Connection {
+    Handshake handshake;  // set once the client's first line has been read
+    Player player;
+    Room room;
+
+    volatile int ackedSeq = -1;  // newest snapshot the client has applied, delta clients only
+    int sentRosterVersion = -1;  // DataSender only
+    DatagramTransport.Peer datagrams;  // set if the client gets its snapshots over UDP
+    final ByteBuffer inputAck = ByteBuffer.allocate(24);  // DataSender only, reused for INPUT_ACK if sendLatestCopies
+
+    // per-client metrics, published as MBeans of type Client while the client is connected
+    final Metrics.Counter bytesSent = new Metrics.Counter();
+    final Metrics.Histogram writeNanos = new Metrics.Histogram(true);
+    final Metrics.Counter framesSkipped = new Metrics.Counter();
+
+    /**
+     * Records a frame that was written to the socket, and how long the socket took to take it.
+     */
+    void recordWrite(int bytes, long nanos) {
+        bytesSent.add(bytes);
+        writeNanos.record(nanos);
+        Metrics.BYTES_SENT.add(bytes);
+        Metrics.WRITE_NANOS.record(nanos);
+    }
+
+    /**
+     * Records a frame that was skipped because the client is too far behind.
+     */
+    void recordSkipped() {
+        framesSkipped.increment();
+        Metrics.FRAMES_SKIPPED.increment();
+    }
+
+    /**
+     * Writes or queues frame[position, limit). The frame may be shared with other connections,
+     * so it is never modified; it must not be modified by the caller afterwards either.
+     *
+     * @param flush false if another frame follows right away
+     * @return false if the frame was skipped because the client is too far behind
+     */
+    abstract boolean send(ByteBuffer frame, boolean flush) throws IOException;
+
+    /**
+     * Like send, for frames that a newer one makes useless (snapshots and INPUT_ACK):
+     * these go over UDP if the client asked for it, where a lost one doesn't hold up the ones after it.
+     */
+    boolean sendLatest(ByteBuffer frame, boolean flush) throws IOException {
+        if (datagrams == null) return send(frame, flush);
+        return datagrams.send(this, frame, flush);
+    }
+
+    /**
+     * True if sendLatest has written or copied the frame by the time it returns, so the caller may reuse its buffer.
+     * Transports that queue frames keep them until they are written.
+     */
+    boolean sendLatestCopies() {
+        return datagrams != null;  // UDP copies every frame into its next message
+    }
+
+    /**
+     * The client's IP address, or null if the transport has none.
+     */
+    InetAddress remoteAddress() {
+        return null;
+    }
+
+    /**
+     * Closes the connection. The transport then notices and calls Server.leave.
+     */
+    abstract void close();
+}
@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Snapshots and inputs over UDP, for clients that asked for it in the handshake (see {@link Handshake#UDP}).
+ * The handshake, WELCOME, ROSTER and DISCONNECT stay on the TCP connection, since they must arrive.
+ *
+ * PACKET FORMATS
+ * server -> client   [seq: int32] [fragment: byte] [fragments: byte] [part of the message]
+ *                    the message is the BinaryProtocol frames of one send (INPUT_ACK, then SNAPSHOT or DELTA),
+ *                    cut into MAX_PAYLOAD pieces. seq goes up by one per message.
+ * client -> server   [playerId: int32] [token: int64] [seq: int32] [lines, utf-8]
+ *                    the same lines as on TCP ("I [seq] [buttons]", "ACK [seq]", ...). seq goes up by one per packet.
+ *                    token is the random number the server sent in WELCOME: the server drops packets with the wrong
+ *                    one, or from another IP address than the client's TCP connection, so nobody can send inputs
+ *                    for another player, or have its snapshots sent elsewhere.
+ *
+ * A packet that isn't newer than the newest one already used is stale, and dropped: a newer snapshot
+ * or input makes the older one useless, so nothing is ever resent. Only one message is reassembled at a time;
+ * when a fragment of a newer one arrives, the incomplete older one is dropped.
+ */
+final class DatagramProtocol {
+    static final int MAX_PAYLOAD = 1200;  // bytes of message per packet, small enough for any path's MTU
+    static final int HEADER = 6;  // server -> client
+    static final int INPUT_HEADER = 16;  // client -> server
+    static final int MAX_FRAGMENTS = 255;
+    static final int MAX_PACKET = 64 * 1024;
+
+    private DatagramProtocol() {
+    }
+
+    /**
+     * Puts messages back together from their fragments, on the client.
+     */
+    static final class Reassembler {
+        private byte[] message = new byte[64 * 1024];
+        private boolean[] received = new boolean[MAX_FRAGMENTS];
+        private int seq;
+        private boolean assembling = false;
+        private int newest = -1;  // seq of the newest message completed
+        private boolean any = false;  // a message was completed
+        private int fragments, fragmentsReceived, length;
+
+        int stale = 0;  // packets dropped for being older than a message already completed or under way
+        int incomplete = 0;  // messages dropped with fragments missing
+
+        /**
+         * Adds one packet.
+         * @return the message, if this packet completed it. It stays valid until the next call.
+         */
+        ByteBuffer add(ByteBuffer packet) {
+            if (packet.remaining() < HEADER) return null;
+            int seq = packet.getInt();
+            int fragment = packet.get() & 0xFF;
+            int count = packet.get() & 0xFF;
+            if (fragment >= count) return null;
+            if (any && seq - newest <= 0) {
+                stale++;
+                return null;
+            }
+
+            if (!assembling || seq - this.seq > 0) {
+                if (assembling) incomplete++;
+                assembling = true;
+                this.seq = seq;
+                fragments = count;
+                fragmentsReceived = 0;
+                length = -1;
+                Arrays.fill(received, 0, count, false);
+            } else if (seq != this.seq) {
+                stale++;
+                return null;
+            }
+            if (received[fragment]) return null;  // a duplicate
+
+            int offset = fragment * MAX_PAYLOAD;
+            int size = packet.remaining();
+            if (offset + size > message.length) message = Arrays.copyOf(message, Math.max(offset + size, message.length * 2));
+            packet.get(message, offset, size);
+            received[fragment] = true;
+            fragmentsReceived++;
+            if (fragment == count - 1) length = offset + size;
+            if (fragmentsReceived < fragments) return null;
+
+            assembling = false;
+            newest = seq;
+            any = true;
+            return ByteBuffer.wrap(message, 0, length);
+        }
+    }
+
+    /**
+     * Sends the lines written to it as one input packet on every flush. Nothing is sent before the
+     * player id and token are known (from WELCOME, see welcome), the lines are dropped instead.
+     */
+    static final class InputWriter extends Writer {
+        private volatile int playerId = -1;
+        private volatile long token;
+
+        private final LinkSimulator link;
+        private final SocketAddress server;
+        private final StringBuilder lines = new StringBuilder();
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET);
+        private int seq = -1;
+
+        InputWriter(LinkSimulator link, SocketAddress server) {
+            this.link = link;
+            this.server = server;
+        }
+
+        /**
+         * The player id and token from WELCOME. Packets can be sent from now on.
+         */
+        void welcome(int playerId, long token) {
+            this.token = token;
+            this.playerId = playerId;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            lines.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(String s) {
+            lines.append(s);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (lines.length() == 0) return;
+            int id = playerId;
+            if (id >= 0) {
+                packet.clear();
+                packet.putInt(id);
+                packet.putLong(token);
+                packet.putInt(++seq);
+                encoder.reset();
+                encoder.encode(CharBuffer.wrap(lines), packet, true);
+                packet.flip();
+                link.send(packet, server);
+            }
+            lines.setLength(0);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The server's UDP socket, shared by every client that gets its snapshots over UDP. See DatagramProtocol for the format.
+ *
+ * One thread receives the input packets and hands their lines to Server.processData, like the TCP readers do.
+ * A client's UDP address is learned from its packets, so it gets no snapshots before it has sent something.
+ * Only packets with the client's token, from the IP address of its TCP connection, count.
+ */
+final class DatagramTransport implements Runnable {
+    private final DatagramChannel channel;
+    private final LinkSimulator link;
+    private final ConcurrentHashMap<Integer, Connection> clients = new ConcurrentHashMap<>();  // by player id
+    private final SecureRandom tokens = new SecureRandom();
+
+    DatagramTransport(int port) throws IOException {
+        channel = DatagramChannel.open().bind(new InetSocketAddress(port));
+        link = new LinkSimulator(channel);
+    }
+
+    /**
+     * Makes the connection send its snapshots over UDP. The player must have its id.
+     * The client must be sent c.datagrams.token, in WELCOME.
+     */
+    void register(Connection c) {
+        c.datagrams = new Peer(tokens.nextLong(), c.remoteAddress());
+        clients.put(c.player.id, c);
+    }
+
+    void unregister(Connection c) {
+        clients.remove(c.player.id, c);
+    }
+
+    @Override
+    public void run() {
+        var packet = ByteBuffer.allocate(DatagramProtocol.MAX_PACKET);
+        while (channel.isOpen()) {
+            try {
+                packet.clear();
+                SocketAddress from = channel.receive(packet);
+                packet.flip();
+                if (packet.remaining() < DatagramProtocol.INPUT_HEADER) continue;
+                var c = clients.get(packet.getInt());
+                if (c == null) continue;
+                var peer = c.datagrams;
+                if (packet.getLong() != peer.token) continue;
+                if (peer.tcpAddress != null && !peer.tcpAddress.equals(((InetSocketAddress) from).getAddress())) continue;
+                int seq = packet.getInt();
+                if (seq - peer.receivedSeq <= 0) continue;  // stale or duplicated
+                peer.receivedSeq = seq;
+                peer.address = from;
+
+                var lines = new String(packet.array(), packet.position(), packet.remaining(), StandardCharsets.UTF_8);
+                int start = 0;
+                for (int end = lines.indexOf('\n'); end >= 0; end = lines.indexOf('\n', start)) {
+                    if (end > start) Server.processData(c, lines.substring(start, end).trim());
+                    start = end + 1;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                // a malformed packet, drop it
+            }
+        }
+    }
+
+    /**
+     * One client's side of the UDP socket.
+     */
+    final class Peer {
+        final long token;  // the client's packets must have it
+        final InetAddress tcpAddress;  // and come from here, if known
+        volatile SocketAddress address;  // where the client's packets come from, null until the first one
+        int receivedSeq = -1;  // newest input packet, receiving thread only
+
+        // DataSender only: the frames of the message being built, and the packet being sent
+        private ByteBuffer message = ByteBuffer.allocate(16 * 1024);
+        private final ByteBuffer packet = ByteBuffer.allocate(DatagramProtocol.HEADER + DatagramProtocol.MAX_PAYLOAD);
+        private int sentSeq = -1;
+
+        Peer(long token, InetAddress tcpAddress) {
+            this.token = token;
+            this.tcpAddress = tcpAddress;
+        }
+
+        /**
+         * Adds the frame to the message, and sends the message once flush is set.
+         * @return false if the message was dropped, because it was too big or the client's address isn't known yet
+         */
+        boolean send(Connection c, ByteBuffer frame, boolean flush) throws IOException {
+            if (message.remaining() < frame.remaining()) {
+                var bigger = ByteBuffer.allocate(Math.max(message.capacity() * 2, message.position() + frame.remaining()));
+                message.flip();
+                bigger.put(message);
+                message = bigger;
+            }
+            message.put(frame.duplicate());
+            if (!flush) return true;
+
+            message.flip();
+            try {
+                int fragments = (message.remaining() + DatagramProtocol.MAX_PAYLOAD - 1) / DatagramProtocol.MAX_PAYLOAD;
+                var to = address;
+                if (to == null || fragments > DatagramProtocol.MAX_FRAGMENTS) {
+                    c.recordSkipped();
+                    return false;
+                }
+
+                long start = System.nanoTime();
+                int bytes = message.remaining() + fragments * DatagramProtocol.HEADER;
+                sentSeq++;
+                for (int i = 0; i < fragments; i++) {
+                    int size = Math.min(DatagramProtocol.MAX_PAYLOAD, message.remaining());
+                    packet.clear();
+                    packet.putInt(sentSeq);
+                    packet.put((byte) i);
+                    packet.put((byte) fragments);
+                    packet.put(message.array(), message.position(), size);
+                    message.position(message.position() + size);
+                    packet.flip();
+                    link.send(packet, to);
+                }
+                c.recordWrite(bytes, System.nanoTime() - start);
+                return true;
+            } finally {
+                message.clear();
+            }
+        }
+    }
+}
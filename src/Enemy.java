@@ -1,11 +1,11 @@
 public class Enemy extends Sprite {
-    int dy = 5;
+    static final int DEFAULT_DY = 5;
+
+    int dy = DEFAULT_DY;
     int dx = 0;
 
     Enemy(int x, int y) {
-        super(x, y);
-        loadImage(FILENAME);
-        loadImageDimensions();
+        super(x, y, SpriteType.ENEMY);
     }
 
     void move() {
@@ -21,6 +21,4 @@ public class Enemy extends Sprite {
         this.dy = dy;
     }
 
-    private final String FILENAME = "enemy.png";
-
 }
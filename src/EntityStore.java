@@ -0,0 +1,247 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays store for one kind of entity (enemies or missiles).
+ *
+ * Every entity is a slot index into parallel int arrays. Live slots are marked in a bitset,
+ * and dead slots go on a free-list so they get reused by the next spawn.
+ * Once the arrays are big enough, spawning, moving and killing entities never allocate.
+ *
+ * Not thread-safe: only the game thread should modify a store.
+ */
+final class EntityStore {
+    final SpriteType type;
+
+    int[] x, y, dx, dy;
+    int[] owner;  // id of the player that owns the entity (missiles), -1 if none
+    int[] id;  // stable id, unlike the slot it is never reused
+    private int nextId = 0;
+
+    private long[] alive;  // bit i is set if slot i holds a live entity
+    private int[] free;  // stack of released slots
+    private int freeCount = 0;
+    private int highWater = 0;  // slots [0, highWater) have been handed out at least once
+    private int size = 0;
+
+    EntityStore(SpriteType type, int capacity) {
+        this.type = type;
+        capacity = Math.max(64, capacity);
+        x = new int[capacity];
+        y = new int[capacity];
+        dx = new int[capacity];
+        dy = new int[capacity];
+        owner = new int[capacity];
+        id = new int[capacity];
+        free = new int[capacity];
+        alive = new long[(capacity + 63) >>> 6];
+    }
+
+    /**
+     * Adds a new entity, reusing a released slot if there is one.
+     * @return the slot of the new entity
+     */
+    int spawn(int x, int y, int dx, int dy, int owner) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (highWater == this.x.length) grow();
+            slot = highWater++;
+        }
+        this.x[slot] = x;
+        this.y[slot] = y;
+        this.dx[slot] = dx;
+        this.dy[slot] = dy;
+        this.owner[slot] = owner;
+        this.id[slot] = nextId++;
+        alive[slot >>> 6] |= 1L << slot;
+        size++;
+        return slot;
+    }
+
+    /**
+     * Removes the entity in the given slot. Safe to call while iterating with {@link #next(int)}.
+     */
+    void kill(int slot) {
+        if (!isAlive(slot)) return;
+        alive[slot >>> 6] &= ~(1L << slot);
+        free[freeCount++] = slot;
+        size--;
+    }
+
+    /**
+     * Removes every entity owned by the given player.
+     */
+    void killOwnedBy(int ownerId) {
+        for (int i = next(0); i >= 0; i = next(i + 1)) {
+            if (owner[i] == ownerId) kill(i);
+        }
+    }
+
+    boolean isAlive(int slot) {
+        return slot < highWater && (alive[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Iterates the live slots in ascending order:
+     * for (int i = store.next(0); i >= 0; i = store.next(i + 1))
+     *
+     * @return the first live slot >= from, or -1 if there is none.
+     */
+    int next(int from) {
+        int w = from >>> 6;
+        if (w >= alive.length) return -1;
+        long word = alive[w] & (-1L << from);
+        while (true) {
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w >= alive.length) return -1;
+            word = alive[w];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Slots available before the arrays have to grow.
+     */
+    int capacity() {
+        return x.length;
+    }
+
+    /**
+     * Every slot ever used is below this, so [0, highWater()) covers all live entities.
+     */
+    int highWater() {
+        return highWater;
+    }
+
+    /**
+     * Moves every entity by its velocity. Dead slots are moved too, which is harmless and keeps the loop branch-free.
+     */
+    void moveAll() {
+        moveRange(0, highWater);
+    }
+
+    /**
+     * moveAll for the slots in [from, to). Different ranges can be moved from different threads.
+     */
+    void moveRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            x[i] += dx[i];
+            y[i] += dy[i];
+        }
+    }
+
+    /**
+     * Makes this store an exact copy of other, free-list and ids included.
+     * Reuses this store's arrays if they have the same capacity, so restoring a saved store does not allocate.
+     */
+    void copyFrom(EntityStore other) {
+        int capacity = other.x.length;
+        if (x.length != capacity) {
+            x = new int[capacity];
+            y = new int[capacity];
+            dx = new int[capacity];
+            dy = new int[capacity];
+            owner = new int[capacity];
+            id = new int[capacity];
+            free = new int[capacity];
+            alive = new long[other.alive.length];
+        }
+        System.arraycopy(other.x, 0, x, 0, capacity);
+        System.arraycopy(other.y, 0, y, 0, capacity);
+        System.arraycopy(other.dx, 0, dx, 0, capacity);
+        System.arraycopy(other.dy, 0, dy, 0, capacity);
+        System.arraycopy(other.owner, 0, owner, 0, capacity);
+        System.arraycopy(other.id, 0, id, 0, capacity);
+        System.arraycopy(other.free, 0, free, 0, capacity);
+        System.arraycopy(other.alive, 0, alive, 0, alive.length);
+        nextId = other.nextId;
+        freeCount = other.freeCount;
+        highWater = other.highWater;
+        size = other.size;
+    }
+
+    /**
+     * Mixes every live entity, with its slot, into h. Equal stores give equal hashes, see Room.stateHash.
+     */
+    long hash(long h) {
+        for (int i = next(0); i >= 0; i = next(i + 1)) {
+            h = h * 31 + i;
+            h = h * 31 + id[i];
+            h = h * 31 + x[i];
+            h = h * 31 + y[i];
+            h = h * 31 + dx[i];
+            h = h * 31 + dy[i];
+            h = h * 31 + owner[i];
+        }
+        return h * 31 + freeCount;
+    }
+
+    /**
+     * Writes the live entities, with their slots, and the free-list: enough for {@link #read} to rebuild an exact copy.
+     * Dead slots' contents are left out, nothing reads them before a spawn overwrites them.
+     *
+     * [highWater] [nextId] [F] [free slot] * F [N] ([slot] [id] [x] [y] [dx] [dy] [owner]) * N
+     * slot, id and the counts are varints, the rest signed varints. Throws BufferOverflowException if b is too small.
+     */
+    void write(ByteBuffer b) {
+        BinaryProtocol.putVarInt(b, highWater);
+        BinaryProtocol.putVarInt(b, nextId);
+        BinaryProtocol.putVarInt(b, freeCount);
+        for (int i = 0; i < freeCount; i++) {
+            BinaryProtocol.putVarInt(b, free[i]);
+        }
+        BinaryProtocol.putVarInt(b, size);
+        for (int i = next(0); i >= 0; i = next(i + 1)) {
+            BinaryProtocol.putVarInt(b, i);
+            BinaryProtocol.putVarInt(b, id[i]);
+            BinaryProtocol.putSignedVarInt(b, x[i]);
+            BinaryProtocol.putSignedVarInt(b, y[i]);
+            BinaryProtocol.putSignedVarInt(b, dx[i]);
+            BinaryProtocol.putSignedVarInt(b, dy[i]);
+            BinaryProtocol.putSignedVarInt(b, owner[i]);
+        }
+    }
+
+    /**
+     * Replaces the contents of this store with what {@link #write} wrote.
+     */
+    void read(ByteBuffer b) {
+        int highWater = BinaryProtocol.getVarInt(b);
+        while (x.length < highWater) grow();
+        this.highWater = highWater;
+        nextId = BinaryProtocol.getVarInt(b);
+        freeCount = BinaryProtocol.getVarInt(b);
+        for (int i = 0; i < freeCount; i++) {
+            free[i] = BinaryProtocol.getVarInt(b);
+        }
+        size = BinaryProtocol.getVarInt(b);
+        Arrays.fill(alive, 0);
+        for (int n = 0; n < size; n++) {
+            int i = BinaryProtocol.getVarInt(b);
+            id[i] = BinaryProtocol.getVarInt(b);
+            x[i] = BinaryProtocol.getSignedVarInt(b);
+            y[i] = BinaryProtocol.getSignedVarInt(b);
+            dx[i] = BinaryProtocol.getSignedVarInt(b);
+            dy[i] = BinaryProtocol.getSignedVarInt(b);
+            owner[i] = BinaryProtocol.getSignedVarInt(b);
+            alive[i >>> 6] |= 1L << i;
+        }
+    }
+
+    private void grow() {
+        int capacity = x.length * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        dx = Arrays.copyOf(dx, capacity);
+        dy = Arrays.copyOf(dy, capacity);
+        owner = Arrays.copyOf(owner, capacity);
+        id = Arrays.copyOf(id, capacity);
+        free = Arrays.copyOf(free, capacity);
+        alive = Arrays.copyOf(alive, (capacity + 63) >>> 6);
+    }
+}
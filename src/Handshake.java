@@ -0,0 +1,48 @@
+/**
+ * The first line a client sends.
+ *
+ * HANDSHAKE FORMAT
+ * [name] [option] ... [option]
+ *
+ * Options are single words and unknown ones are ignored, so older servers and clients still understand each other.
+ * Names can't contain spaces.
+ */
+class Handshake {
+    static final String BINARY = "BINARY";  // use BinaryProtocol for the game state
+    static final String DELTA = "DELTA";  // binary, with delta-compressed snapshots
+    static final String INPUT = "INPUT";  // compact input lines, and INPUT_ACK frames with the binary protocol
+    static final String UDP = "UDP";  // binary, with snapshots and inputs over UDP (see DatagramProtocol)
+    static final String ROOM = "ROOM=";  // ROOM=[name] joins (or opens) the room with that name
+
+    String name;
+    boolean binary;
+    boolean delta;
+    boolean compactInput;
+    boolean udp;
+    String room;  // null to be put in any room with space
+
+    static Handshake parse(String line) {
+        var h = new Handshake();
+        var words = line.trim().split(" +");
+        h.name = words[0];
+        for (int i = 1; i < words.length; i++) {
+            if (words[i].equals(BINARY)) h.binary = true;
+            if (words[i].equals(DELTA)) h.binary = h.delta = true;
+            if (words[i].equals(INPUT)) h.compactInput = true;
+            if (words[i].equals(UDP)) h.binary = h.udp = true;
+            if (words[i].startsWith(ROOM) && words[i].length() > ROOM.length()) h.room = words[i].substring(ROOM.length());
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        var line = new StringBuilder(name.replace(' ', '_'));
+        if (binary) line.append(" ").append(BINARY);
+        if (delta) line.append(" ").append(DELTA);
+        if (compactInput) line.append(" ").append(INPUT);
+        if (udp) line.append(" ").append(UDP);
+        if (room != null) line.append(" ").append(ROOM).append(room.replace(' ', '_'));
+        return line.toString();
+    }
+}
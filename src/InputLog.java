@@ -0,0 +1,197 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only, memory-mapped log of everything a room's simulation depends on besides its seed:
+ * which players join and leave at which tick, and the buttons they hold. Replay re-runs a session from it.
+ *
+ * Written by the game task only. The file is mapped in chunks, so appending is a few stores into memory,
+ * and what was written survives the server crashing.
+ *
+ * LOG FORMAT
+ * [magic: int32 = "NGIL"] [version: int32] [seed: int64] [nameLength] [room name, utf-8]
+ * then records, each [type: byte] [ticks since the previous record] [payload]:
+ *
+ * JOIN    [playerId] [nameLength] [name, utf-8]     at the start of the tick
+ * LEAVE   [playerId]                                at the start of the tick
+ * INPUT   [playerId] [buttons: byte]                the player's buttons changed at the start of the tick
+ * CHECK   [hash: int64]                             Room.stateHash once the tick count got there, every CHECK_INTERVAL
+ * END                                               the room stopped at this tick count
+ *
+ * Numbers without a size are unsigned varints. A 0 type is the end of the data: the file grows in zeroed chunks,
+ * and a log whose server died has no END.
+ */
+final class InputLog {
+    static final int MAGIC = 0x4E47494C;
+    static final int VERSION = 3;  // 2: enemies are placed by Room.nextRandom, 3: stateHash has the wave position
+    static final byte JOIN = 1, LEAVE = 2, INPUT = 3, CHECK = 4, END = 5;
+    static final int CHECK_INTERVAL = 64;  // ticks
+    private static final int CHUNK = 1024 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private long mapStart = 0;
+    private int lastTick = 0;
+    private boolean closed = false;
+
+    private InputLog(Path file, String room, long seed) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK);
+        byte[] name = room.getBytes(StandardCharsets.UTF_8);
+        map.putInt(MAGIC);
+        map.putInt(VERSION);
+        map.putLong(seed);
+        BinaryProtocol.putVarInt(map, name.length);
+        map.put(name);
+    }
+
+    /**
+     * Creates a new log for a room that starts with the given seed.
+     */
+    static InputLog create(Path file, String room, long seed) throws IOException {
+        return new InputLog(file, room, seed);
+    }
+
+    synchronized void join(int tick, int playerId, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (!begin(JOIN, tick, 10 + bytes.length)) return;
+        BinaryProtocol.putVarInt(map, playerId);
+        BinaryProtocol.putVarInt(map, bytes.length);
+        map.put(bytes);
+    }
+
+    synchronized void leave(int tick, int playerId) {
+        if (!begin(LEAVE, tick, 5)) return;
+        BinaryProtocol.putVarInt(map, playerId);
+    }
+
+    synchronized void input(int tick, int playerId, int buttons) {
+        if (!begin(INPUT, tick, 6)) return;
+        BinaryProtocol.putVarInt(map, playerId);
+        map.put((byte) buttons);
+    }
+
+    synchronized void check(int tick, long hash) {
+        if (!begin(CHECK, tick, 8)) return;
+        map.putLong(hash);
+    }
+
+    /**
+     * Writes END, and cuts the file down to what was written. Later records are ignored.
+     */
+    synchronized void close(int tick) {
+        if (!begin(END, tick, 0)) return;
+        closed = true;
+        try {
+            map.force();
+            long size = mapStart + map.position();
+            map = null;
+            channel.truncate(size);
+            channel.close();
+        } catch (IOException e) {
+            // the data is already written; on some platforms a mapped file can't be truncated
+        }
+    }
+
+    /**
+     * Writes a record's type and tick, making room for payloadBytes more first.
+     * @return false if the log is closed, or broken by an earlier error
+     */
+    private boolean begin(byte type, int tick, int payloadBytes) {
+        if (closed) return false;
+        try {
+            int size = 1 + 5 + payloadBytes;
+            if (map.remaining() < size) {
+                mapStart += map.position();
+                map = channel.map(FileChannel.MapMode.READ_WRITE, mapStart, Math.max(CHUNK, size));
+            }
+        } catch (IOException e) {
+            System.out.println("Stopped recording to " + file + ": " + e);
+            closed = true;
+            return false;
+        }
+        map.put(type);
+        BinaryProtocol.putVarInt(map, tick - lastTick);
+        lastTick = tick;
+        return true;
+    }
+
+    /**
+     * Reads a log one record at a time: next() fills in type, tick and the fields of that type.
+     */
+    static final class Reader implements Closeable {
+        final long seed;
+        final String room;
+
+        byte type;
+        int tick;
+        int playerId;
+        String name;
+        int buttons;
+        long hash;
+
+        private final FileChannel channel;
+        private final ByteBuffer data;
+
+        Reader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt() != MAGIC) throw new IOException(file + " is not an input log");
+            int version = data.getInt();
+            if (version != VERSION) throw new IOException(file + " has version " + version + ", expected " + VERSION);
+            seed = data.getLong();
+            room = readString();
+        }
+
+        /**
+         * @return false at the end of the data
+         */
+        boolean next() {
+            if (!data.hasRemaining()) return false;
+            type = data.get();
+            if (type == 0) return false;
+            tick += BinaryProtocol.getVarInt(data);
+            switch (type) {
+                case JOIN:
+                    playerId = BinaryProtocol.getVarInt(data);
+                    name = readString();
+                    break;
+                case LEAVE:
+                    playerId = BinaryProtocol.getVarInt(data);
+                    break;
+                case INPUT:
+                    playerId = BinaryProtocol.getVarInt(data);
+                    buttons = data.get();
+                    break;
+                case CHECK:
+                    hash = data.getLong();
+                    break;
+                case END:
+                    break;
+                default:
+                    throw new IllegalStateException("unknown record type " + type);
+            }
+            return true;
+        }
+
+        private String readString() {
+            int length = BinaryProtocol.getVarInt(data);
+            var bytes = new byte[length];
+            data.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * The inputs of one player, in the order they arrived.
+ *
+ * The connection's reader adds them, and the game task drains them at the start of every tick,
+ * so a player's buttons only ever change at that point and only on the game thread.
+ * If the game falls behind, the oldest inputs are dropped once CAPACITY are waiting.
+ */
+final class InputQueue {
+    private static final int CAPACITY = 32;
+
+    private final int[] buttons = new int[CAPACITY];
+    private final int[] seqs = new int[CAPACITY];
+    private int head = 0;
+    private int count = 0;
+    private int lastSeq = -1;  // newest sequence number queued, older or repeated ones are ignored
+    int appliedSeq = -1;  // sequence number of the last input the game applied, game task only
+
+    /**
+     * Queues an input, unless it is not newer than the last one (a keepalive, or one that arrived late).
+     */
+    synchronized void offer(int seq, int buttons) {
+        if (seq - lastSeq <= 0) return;
+        lastSeq = seq;
+        if (count == CAPACITY) {
+            head = (head + 1) % CAPACITY;
+            count--;
+        }
+        int tail = (head + count++) % CAPACITY;
+        this.buttons[tail] = buttons;
+        seqs[tail] = seq;
+    }
+
+    /**
+     * Queues an input that came without a sequence number (the text format).
+     */
+    synchronized void offer(int buttons) {
+        offer(lastSeq + 1, buttons);
+    }
+
+    /**
+     * Takes every queued input. Game task only.
+     *
+     * @return the buttons of the newest input, or current if nothing was queued.
+     * FIRE is set if any of the inputs had it, so a quick tap between two ticks still fires.
+     */
+    synchronized int drain(int current) {
+        if (count == 0) return current;
+        int fire = 0;
+        for (int i = 0; i < count; i++) {
+            fire |= buttons[(head + i) % CAPACITY] & Player.FIRE;
+        }
+        int last = (head + count - 1) % CAPACITY;
+        appliedSeq = seqs[last];
+        head = (last + 1) % CAPACITY;
+        count = 0;
+        return buttons[last] | fire;
+    }
+}
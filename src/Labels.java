@@ -0,0 +1,68 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Text pre-rendered into images, so labels that rarely change are drawn with one drawImage
+ * instead of laying out their glyphs every frame.
+ *
+ * The images are compatible with the screen, like the textures. Not thread-safe: an instance belongs to the thread that draws with it.
+ */
+final class Labels {
+    private static final int CAPACITY = 256;  // labels kept, the least recently drawn ones go first
+
+    private final Font font;
+    private final Color color;
+    private final FontMetrics metrics;
+    private final GraphicsConfiguration gc;
+    private final Map<String, Image> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    Labels(Font font, Color color) {
+        this.font = font;
+        this.color = color;
+        var scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        metrics = scratch.getFontMetrics(font);
+        scratch.dispose();
+        gc = GraphicsEnvironment.isHeadless() ? null : GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice()
+                .getDefaultConfiguration();
+    }
+
+    /**
+     * The label for text, rendered the first time it is asked for.
+     * Draw it at y - ascent() to put its baseline where drawString would.
+     */
+    Image get(String text) {
+        return cache.computeIfAbsent(text, this::render);
+    }
+
+    /**
+     * Renders text without caching it, for labels that change all the time.
+     */
+    Image render(String text) {
+        int width = Math.max(1, metrics.stringWidth(text));
+        int height = metrics.getAscent() + metrics.getDescent();
+        var image = gc == null ? new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
+                : gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        var g = image.createGraphics();
+        g.setFont(font);
+        g.setColor(color);
+        g.drawString(text, 0, metrics.getAscent());
+        g.dispose();
+        return image;
+    }
+
+    int ascent() {
+        return metrics.getAscent();
+    }
+
+    int width(String text) {
+        return metrics.stringWidth(text);
+    }
+}
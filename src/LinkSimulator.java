@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends datagrams, optionally through a simulated bad network, so the UDP transport can be tried on loopback.
+ *
+ *   -Dnewgame.udpLoss=[0..1]   chance that a packet is dropped
+ *   -Dnewgame.udpLatency=[ms]  delay added to every packet
+ *   -Dnewgame.udpJitter=[ms]   extra random delay of up to this much, which also reorders packets
+ *
+ * Only what this process sends is affected: give the settings to the server, the client, or both.
+ */
+final class LinkSimulator {
+    private static final double LOSS = Double.parseDouble(System.getProperty("newgame.udpLoss", "0"));
+    private static final long LATENCY = Integer.getInteger("newgame.udpLatency", 0) * 1_000_000L;
+    private static final long JITTER = Integer.getInteger("newgame.udpJitter", 0) * 1_000_000L;
+
+    private static ScheduledExecutorService delayed;  // created on first use, shared by every link in the process
+
+    private final DatagramChannel channel;
+
+    LinkSimulator(DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Sends packet[position, limit) to the address, or drops or delays it as configured.
+     * Without latency or jitter it is sent right away, and the caller may reuse the packet once this returns.
+     */
+    void send(ByteBuffer packet, SocketAddress to) throws IOException {
+        var random = ThreadLocalRandom.current();
+        if (LOSS > 0 && random.nextDouble() < LOSS) return;
+        if (LATENCY == 0 && JITTER == 0) {
+            channel.send(packet, to);
+            return;
+        }
+
+        long delay = LATENCY + (JITTER > 0 ? random.nextLong(JITTER) : 0);
+        var copy = ByteBuffer.allocate(packet.remaining());
+        copy.put(packet);
+        copy.flip();
+        scheduler().schedule(() -> {
+            try {
+                channel.send(copy, to);
+            } catch (IOException e) {
+                // lost, like any other packet
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (delayed == null) {
+            delayed = Executors.newSingleThreadScheduledExecutor(r -> {
+                var t = new Thread(r, "link-simulator");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return delayed;
+    }
+}
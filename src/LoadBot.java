@@ -0,0 +1,495 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator: N bots that connect to a local Server and play like Client does, without any window.
+ *
+ * java LoadBot [bots] [seconds]
+ *   -Dbot.protocol=text|binary|delta  (default text)
+ *   -Dbot.room=[name]                 all bots ask for this room, otherwise the server fills rooms
+ *   -Dbot.script=random|sweep         random movement and firing, or left-right sweeps while firing
+ *   -Dbot.rampMillis=10               delay between two bots connecting
+ *   -Dbot.compactInput=true           send "I [seq] [buttons]" on change instead of five words every SEND_DELAY
+ *   -Dbot.udp=true                    binary or delta snapshots and inputs over UDP (see DatagramProtocol),
+ *                                     -Dnewgame.udpLoss/udpLatency/udpJitter simulate a bad network, see LinkSimulator
+ *
+ * Every second it prints how many bots are playing (their player is in the game state) out of those connected,
+ * the snapshot inter-arrival time and jitter (standard deviation),
+ * the input-to-echo latency, the bytes received per second and the disconnects (and with UDP, the messages lost or stale).
+ * Latency is the time from sending a new horizontal direction to the first snapshot that shows the bot moving that way.
+ */
+final class LoadBot {
+    private static final String HOST_NAME = "localhost";
+    private static final int PORT_NUM = 6969;
+    private static final int SEND_DELAY = 15;  // same as Client
+    private static final String PROTOCOL = System.getProperty("bot.protocol", "text");
+    private static final String ROOM = System.getProperty("bot.room");
+    private static final boolean SWEEP = System.getProperty("bot.script", "random").equals("sweep");
+    private static final int RAMP_MILLIS = Integer.getInteger("bot.rampMillis", 10);
+    private static final boolean COMPACT_INPUT = Boolean.getBoolean("bot.compactInput");
+    private static final boolean UDP = Boolean.getBoolean("bot.udp");
+    private static final long KEEPALIVE = 1_000_000_000L;  // same as Client.KEEPALIVE_DELAY
+    private static final long ECHO_TIMEOUT = 2_000_000_000L;  // pending directions that never show up are dropped
+
+    // stats, per report window and since the start
+    private static final Metrics.Histogram intervals = new Metrics.Histogram(true), totalIntervals = new Metrics.Histogram(true);
+    private static final Metrics.Histogram latencies = new Metrics.Histogram(true), totalLatencies = new Metrics.Histogram(true);
+    private static final LongAdder bytesReceived = new LongAdder();
+    private static final LongAdder connected = new LongAdder();
+    private static final LongAdder playing = new LongAdder();
+    private static final LongAdder disconnects = new LongAdder();
+    private static final LongAdder deaths = new LongAdder();
+    private static final LongAdder echoTimeouts = new LongAdder();
+    private static final LongAdder messagesLost = new LongAdder();  // UDP: snapshots that never arrived whole
+    private static final LongAdder messagesStale = new LongAdder();  // UDP: packets that arrived after a newer one
+
+    private static final ScheduledExecutorService senders =
+            Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+
+    private LoadBot() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+        System.out.println("starting " + count + " " + PROTOCOL + (UDP ? "/udp" : "") + " bots for " + seconds + "s");
+        var bots = new ArrayList<Bot>();
+        for (int i = 0; i < count; i++) {
+            var bot = new Bot("bot" + i);
+            bots.add(bot);
+            var t = new Thread(bot, bot.name);
+            t.setDaemon(true);
+            t.start();
+            if (RAMP_MILLIS > 0) Thread.sleep(RAMP_MILLIS);
+        }
+
+        long start = System.nanoTime();
+        long lastBytes = 0;
+        for (int s = 1; s <= seconds; s++) {
+            Thread.sleep(Math.max(0, start + s * 1_000_000_000L - System.nanoTime()) / 1_000_000);
+            long bytes = bytesReceived.sum();
+            intervals.sample(1);  // the stats below are of the second that just ended
+            latencies.sample(1);
+            System.out.printf("t=%3ds playing=%d connected=%d/%d recv=%.1f KB/s snapshots=%d "
+                            + "interval p50/p99/max=%.1f/%.1f/%.1f ms jitter=%.2f ms latency p50/p90/p99=%.1f/%.1f/%.1f ms disconnects=%d deaths=%d%n",
+                    s, playing.sum(), connected.sum(), count, (bytes - lastBytes) / 1024.0, intervals.count(),
+                    millis(intervals.percentile(0.5)), millis(intervals.percentile(0.99)), millis(intervals.max()),
+                    intervals.stdDev() / 1e6,
+                    millis(latencies.percentile(0.5)), millis(latencies.percentile(0.9)), millis(latencies.percentile(0.99)),
+                    disconnects.sum(), deaths.sum());
+            lastBytes = bytes;
+        }
+        totalIntervals.sample(seconds);
+        totalLatencies.sample(seconds);
+
+        System.out.println("---- totals");
+        System.out.printf("received %.1f KB/s, %d snapshots, %d disconnects, %d deaths, %d echoes never seen%n",
+                bytesReceived.sum() / 1024.0 / seconds, totalIntervals.count(), disconnects.sum(), deaths.sum(),
+                echoTimeouts.sum());
+        if (UDP) System.out.printf("udp: %d messages lost, %d stale packets dropped%n", messagesLost.sum(), messagesStale.sum());
+        System.out.printf("snapshot interval p50/p90/p99/p99.9/max = %.1f/%.1f/%.1f/%.1f/%.1f ms, jitter %.2f ms%n",
+                millis(totalIntervals.percentile(0.5)), millis(totalIntervals.percentile(0.9)),
+                millis(totalIntervals.percentile(0.99)), millis(totalIntervals.percentile(0.999)),
+                millis(totalIntervals.max()), totalIntervals.stdDev() / 1e6);
+        System.out.printf("input-to-echo latency p50/p90/p99/p99.9/max = %.1f/%.1f/%.1f/%.1f/%.1f ms (%d samples)%n",
+                millis(totalLatencies.percentile(0.5)), millis(totalLatencies.percentile(0.9)),
+                millis(totalLatencies.percentile(0.99)), millis(totalLatencies.percentile(0.999)),
+                millis(totalLatencies.max()), totalLatencies.count());
+
+        for (Bot bot : bots) {
+            bot.stop();
+        }
+        senders.shutdownNow();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * One simulated player. Its thread reads the game state, a shared scheduler sends its inputs.
+     * When its player dies it reconnects, so the load stays the same.
+     */
+    private static final class Bot implements Runnable {
+        final String name;
+        private volatile boolean running = true;
+        private volatile Socket socket;
+        private Writer out;
+        private Writer input;  // where the lines go: out, or with UDP an InputWriter
+        private volatile DatagramChannel datagrams;  // UDP only
+        private DatagramProtocol.InputWriter datagramOut;
+        private volatile int playerId = -1;
+        private final WorldSnapshot[] baselines = new WorldSnapshot[64];
+
+        // input, changed by the sender only
+        private boolean up, down, left, right, firing;
+        private long nextChange;
+
+        // echo tracking: the direction last sent and when, cleared once a snapshot shows it
+        private volatile int pendingDirection;
+        private volatile long pendingSince;  // 0 if nothing is pending
+        private volatile int x = Integer.MIN_VALUE;  // own position from the last snapshot
+        private boolean inGame;  // the bot's player has shown up in a snapshot, receiver only
+
+        private volatile int ackSeq = -1;
+        private int sentAckSeq = -1;
+        private long lastSnapshot;
+
+        // compact input
+        private int sentButtons = -1;
+        private int inputSeq = -1;
+        private long sentButtonsAt;
+
+        Bot(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                boolean died = false;
+                try (var s = new Socket(HOST_NAME, PORT_NUM)) {
+                    socket = s;
+                    s.setTcpNoDelay(true);
+                    out = new OutputStreamWriter(new BufferedOutputStream(s.getOutputStream()), StandardCharsets.UTF_8);
+                    input = out;
+                    var in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                    if (UDP) {
+                        var server = new InetSocketAddress(HOST_NAME, PORT_NUM);
+                        datagrams = DatagramChannel.open().connect(server);
+                        datagramOut = new DatagramProtocol.InputWriter(new LinkSimulator(datagrams), server);
+                        input = datagramOut;
+                    }
+                    sendHandshake();
+                    connected.increment();
+                    var sender = senders.scheduleWithFixedDelay(this::send, SEND_DELAY, SEND_DELAY, TimeUnit.MILLISECONDS);
+                    try {
+                        died = PROTOCOL.equals("text") ? receiveText(in) : UDP ? receiveDatagrams(in) : receiveBinary(in);
+                    } finally {
+                        if (datagrams != null) datagrams.close();
+                        sender.cancel(false);
+                        connected.decrement();
+                        if (inGame) playing.decrement();
+                        inGame = false;
+                    }
+                    if (died) {
+                        deaths.increment();
+                        synchronized (this) {
+                            out.write("DISCONNECT\n");
+                            out.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    // counted below
+                }
+                if (!running) return;
+                if (!died) disconnects.increment();
+                reset();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void stop() {
+            running = false;
+            disconnect();
+        }
+
+        /**
+         * Closes the sockets. The receiving thread notices, and run counts the disconnect and connects again.
+         */
+        private void disconnect() {
+            try {
+                var s = socket;
+                if (s != null) s.close();
+                var d = datagrams;
+                if (d != null) d.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void reset() {
+            x = Integer.MIN_VALUE;
+            pendingSince = 0;
+            ackSeq = sentAckSeq = -1;
+            sentButtons = inputSeq = playerId = -1;
+            Arrays.fill(baselines, null);
+            lastSnapshot = 0;
+            up = down = left = right = firing = false;
+        }
+
+        private synchronized void sendHandshake() throws IOException {
+            var hello = new Handshake();
+            hello.name = name;
+            hello.binary = !PROTOCOL.equals("text");
+            hello.delta = PROTOCOL.equals("delta");
+            hello.room = ROOM;
+            hello.udp = UDP;
+            hello.compactInput = COMPACT_INPUT;
+            out.write(hello.toString());
+            out.write("\n");
+            out.flush();
+        }
+
+        /**
+         * Same lines as Client.DataSender: the ACK for delta snapshots, then the player actions.
+         */
+        private synchronized void send() {
+            try {
+                long now = System.nanoTime();
+                if (pendingSince != 0 && now - pendingSince > ECHO_TIMEOUT) {
+                    pendingSince = 0;
+                    echoTimeouts.increment();
+                }
+                if (now >= nextChange) changeInput(now);
+
+                int seq = ackSeq;
+                if (seq != sentAckSeq) {
+                    input.write("ACK " + seq + "\n");
+                    sentAckSeq = seq;
+                }
+                if (COMPACT_INPUT) {
+                    int buttons = (up ? Player.UP : 0) | (down ? Player.DOWN : 0) | (left ? Player.LEFT : 0)
+                            | (right ? Player.RIGHT : 0) | (firing ? Player.FIRE : 0);
+                    if (UDP || buttons != sentButtons || now - sentButtonsAt >= KEEPALIVE) {  // see Client.sendButtons
+                        if (buttons != sentButtons) inputSeq++;
+                        input.write("I " + inputSeq + " " + buttons + "\n");
+                        sentButtons = buttons;
+                        sentButtonsAt = now;
+                    }
+                } else {
+                    input.write(up + " " + down + " " + left + " " + right + " " + firing + "\n");
+                }
+                input.flush();
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+
+        /**
+         * Picks the next input. Horizontal moves head back towards the middle, so the bot stays in sight
+         * and every new direction shows up in its position.
+         */
+        private void changeInput(long now) {
+            var random = ThreadLocalRandom.current();
+            int direction = x == Integer.MIN_VALUE || x < Client.DEFAULT_WIDTH / 2 ? 1 : -1;
+            if (SWEEP) {
+                firing = true;
+                up = down = false;
+                nextChange = now + 500_000_000L;
+            } else {
+                if (random.nextInt(4) == 0) direction = 0;
+                firing = random.nextBoolean();
+                int vertical = random.nextInt(3);
+                up = vertical == 1;
+                down = vertical == 2;
+                nextChange = now + random.nextLong(100_000_000L, 1_000_000_000L);
+            }
+            int old = right ? 1 : left ? -1 : 0;
+            right = direction > 0;
+            left = direction < 0;
+            if (direction != old && x != Integer.MIN_VALUE) {
+                pendingDirection = direction;
+                pendingSince = now;
+            }
+        }
+
+        /**
+         * Called for every snapshot with the bot's own x.
+         */
+        private void onSnapshot(int newX) {
+            long now = System.nanoTime();
+            if (!inGame) {
+                inGame = true;
+                playing.increment();
+            }
+            if (lastSnapshot != 0) {
+                intervals.record(now - lastSnapshot);
+                totalIntervals.record(now - lastSnapshot);
+            }
+            lastSnapshot = now;
+
+            long since = pendingSince;
+            if (since != 0 && x != Integer.MIN_VALUE && Integer.signum(newX - x) == pendingDirection) {
+                latencies.record(now - since);
+                totalLatencies.record(now - since);
+                pendingSince = 0;
+            }
+            x = newX;
+        }
+
+        /**
+         * Reads START ... STOP game states, see Client.processData.
+         * @return true if the bot's player died, false if the server closed the connection
+         */
+        private boolean receiveText(DataInputStream in) throws IOException {
+            var line = new StringBuilder();
+            int ownX = Integer.MIN_VALUE;
+            while (true) {
+                if (!readLine(in, line)) return false;
+                if (line.toString().equals("PLAYERS")) {
+                    if (!readLine(in, line)) return false;
+                    int numPlayers = Integer.parseInt(line.toString());
+                    ownX = Integer.MIN_VALUE;
+                    for (int i = 0; i < numPlayers; i++) {
+                        if (!readLine(in, line)) return false;
+                        var playerInfo = line.toString().split(" ");
+                        if (playerInfo[0].equals(name)) ownX = Integer.parseInt(playerInfo[1]);
+                    }
+                } else if (line.toString().equals("STOP")) {
+                    if (ownX != Integer.MIN_VALUE) {
+                        onSnapshot(ownX);
+                    } else if (inGame) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        private boolean readLine(DataInputStream in, StringBuilder line) throws IOException {
+            line.setLength(0);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) return false;
+                line.append((char) c);
+            }
+            bytesReceived.add(line.length() + 1);
+            return true;
+        }
+
+        /**
+         * Reads BinaryProtocol frames, see Client.processBinaryData.
+         * @return true if the bot's player died, false if the server closed the connection
+         */
+        private boolean receiveBinary(DataInputStream in) throws IOException {
+            byte[] frame = new byte[64 * 1024];
+            try {
+                while (true) {
+                    int length = in.readInt();
+                    if (length > frame.length) frame = new byte[Integer.highestOneBit(length) * 2];
+                    in.readFully(frame, 0, length);
+                    bytesReceived.add(length + 4);
+                    if (onFrame(ByteBuffer.wrap(frame, 0, length))) return true;
+                }
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Reads the snapshots from UDP, see Client.DatagramReceiver. A thread of its own reads the TCP
+         * connection for WELCOME, and closes the UDP channel when the server closes the connection.
+         * @return true if the bot's player died, false if the server closed the connection
+         */
+        private boolean receiveDatagrams(DataInputStream in) throws IOException {
+            var tcp = new Thread(() -> {
+                try {
+                    receiveBinary(in);
+                } catch (IOException e) {
+                    // closed
+                }
+                try {
+                    datagrams.close();  // ends receiveDatagrams
+                } catch (IOException ignored) {
+                }
+            }, name + "-tcp");
+            tcp.setDaemon(true);
+            tcp.start();
+
+            var packet = ByteBuffer.allocate(DatagramProtocol.MAX_PACKET);
+            var messages = new DatagramProtocol.Reassembler();
+            int lost = 0, stale = 0;
+            try {
+                while (true) {
+                    packet.clear();
+                    datagrams.receive(packet);
+                    packet.flip();
+                    bytesReceived.add(packet.remaining());
+                    var message = messages.add(packet);
+                    messagesLost.add(messages.incomplete - lost);
+                    messagesStale.add(messages.stale - stale);
+                    lost = messages.incomplete;
+                    stale = messages.stale;
+                    if (message == null) continue;
+
+                    while (message.remaining() >= 4) {
+                        int length = message.getInt();
+                        var frame = message.slice();
+                        frame.limit(length);
+                        message.position(message.position() + length);
+                        if (onFrame(frame)) return true;
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Decodes one frame, and hands the bot's own x to onSnapshot if it is a game state.
+         * @return true if it is a game state without the bot's player, which means the player died
+         */
+        private boolean onFrame(ByteBuffer data) {
+            byte type = data.get();
+            int ownX = Integer.MIN_VALUE;
+            if (type == BinaryProtocol.WELCOME) {
+                int id = BinaryProtocol.getVarInt(data);
+                playerId = id;
+                BinaryProtocol.getVarInt(data);  // tickMicros
+                if (datagramOut != null && data.remaining() >= 8) datagramOut.welcome(id, data.getLong());
+                return false;
+            } else if (type == BinaryProtocol.DELTA) {
+                int baselineSeq = data.getInt(data.position() + 8);
+                WorldSnapshot baseline = null;
+                if (baselineSeq >= 0) {
+                    baseline = baselines[baselineSeq % baselines.length];
+                    if (baseline == null || baseline.seq != baselineSeq) return false;
+                }
+                var snapshot = WorldSnapshot.readDelta(data, baseline);
+                baselines[snapshot.seq % baselines.length] = snapshot;
+                ackSeq = snapshot.seq;
+                var p = snapshot.players;
+                for (int i = 0; i < p.count; i++) {
+                    if (p.id[i] == playerId) ownX = p.x[i];
+                }
+            } else if (type == BinaryProtocol.SNAPSHOT) {
+                int numPlayers = data.getInt();
+                for (int i = 0; i < numPlayers; i++) {
+                    int id = BinaryProtocol.getVarInt(data);
+                    int playerX = BinaryProtocol.getSignedVarInt(data);
+                    BinaryProtocol.getSignedVarInt(data);
+                    if (id == playerId) ownX = playerX;
+                }
+            } else {
+                return false;
+            }
+            if (ownX != Integer.MIN_VALUE) {
+                onSnapshot(ownX);
+                return false;
+            }
+            return inGame;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server metrics: counters, gauges and histograms, published as JMX MBeans (domain "newgame")
+ * and printed as one compact line every PERIOD seconds.
+ *
+ * Recording never locks: counters are LongAdders, histograms are striped atomic buckets.
+ * Rates and histogram statistics cover the last period, they are rolled over by the sampler.
+ *
+ * -Dnewgame.metricsPeriod=[seconds] (default 10), -Dnewgame.metricsDump=false to only publish to JMX.
+ */
+final class Metrics {
+    private static final int PERIOD = Integer.getInteger("newgame.metricsPeriod", 10);
+    private static final boolean DUMP = Boolean.parseBoolean(System.getProperty("newgame.metricsDump", "true"));
+
+    private static final String SERVER = "Server";  // MBean type of the server-wide metrics, the only ones dumped
+    private static final Map<String, Metric> registry = new ConcurrentHashMap<>();
+    private static final Map<String, Metric> serverMetrics = new LinkedHashMap<>();  // dump order, guarded by itself
+
+    static final Histogram TICK_NANOS = register("tickNanos", new Histogram(true));
+    static final Counter TICK_OVERRUNS = register("tickOverruns", new Counter());
+    static final Counter TICKS_DROPPED = register("ticksDropped", new Counter());
+    static final Histogram SNAPSHOT_BYTES = register("snapshotBytes", new Histogram(false));  // every encoded frame
+    static final Histogram ENCODE_NANOS = register("encodeNanos", new Histogram(true));
+    static final Counter BYTES_SENT = register("bytesSent", new Counter());
+    static final Histogram WRITE_NANOS = register("writeNanos", new Histogram(true));
+    static final Counter FRAMES_SKIPPED = register("framesSkipped", new Counter());
+    static final Counter MESSAGES_IN = register("messagesIn", new Counter());
+    static final Histogram CHECKPOINT_NANOS = register("checkpointNanos", new Histogram(true));  // encoding a room's checkpoint, on its game task
+
+    private Metrics() {
+    }
+
+    static <M extends Metric> M register(String name, M metric) {
+        register(SERVER, name, metric);
+        synchronized (serverMetrics) {
+            serverMetrics.put(name, metric);
+        }
+        return metric;
+    }
+
+    static void gauge(String name, LongSupplier value) {
+        register(name, new Gauge(value));
+    }
+
+    /**
+     * Registers a metric that is only published to JMX, like the ones of each client.
+     */
+    static void register(String type, String name, Metric metric) {
+        try {
+            var objectName = new ObjectName("newgame", objectKeys(type, name));
+            registry.put(objectName.getCanonicalName(), metric);
+            var server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+            server.registerMBean(metric, objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static void unregister(String type, String name) {
+        try {
+            var objectName = new ObjectName("newgame", objectKeys(type, name));
+            registry.remove(objectName.getCanonicalName());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Hashtable<String, String> objectKeys(String type, String name) {
+        var keys = new Hashtable<String, String>();
+        keys.put("type", ObjectName.quote(type));
+        keys.put("name", ObjectName.quote(name));
+        return keys;
+    }
+
+    /**
+     * Starts rolling the metrics over every PERIOD seconds, and printing them if DUMP is set.
+     */
+    static void start(ScheduledExecutorService executor) {
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                for (Metric m : registry.values()) {
+                    m.sample(PERIOD);
+                }
+                if (DUMP) System.out.println(dump());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, PERIOD, PERIOD, TimeUnit.SECONDS);
+    }
+
+    /**
+     * One line with every server metric, as of the last period.
+     */
+    static String dump() {
+        var line = new StringBuilder("metrics");
+        synchronized (serverMetrics) {
+            for (var e : serverMetrics.entrySet()) {
+                line.append(' ').append(e.getKey()).append('=');
+                e.getValue().dump(line);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * A metric is its own MBean. Its attributes are read-only longs and doubles.
+     */
+    abstract static class Metric implements DynamicMBean {
+        private final String[] attributes;
+        private MBeanInfo info;
+
+        Metric(String... attributes) {
+            this.attributes = attributes;
+        }
+
+        /** Rolls over to a new period of the given length. Sampler thread only. */
+        void sample(int seconds) {
+        }
+
+        abstract Object get(String attribute);
+
+        abstract void dump(StringBuilder out);
+
+        @Override
+        public Object getAttribute(String attribute) {
+            return get(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            var list = new AttributeList();
+            for (String name : names) {
+                list.add(new Attribute(name, get(name)));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(action);
+        }
+
+        @Override
+        public synchronized MBeanInfo getMBeanInfo() {
+            if (info == null) {
+                var infos = new MBeanAttributeInfo[attributes.length];
+                for (int i = 0; i < attributes.length; i++) {
+                    String type = get(attributes[i]) instanceof Double ? "double" : "long";
+                    infos[i] = new MBeanAttributeInfo(attributes[i], type, attributes[i], true, false, false);
+                }
+                info = new MBeanInfo(getClass().getName(), getClass().getSimpleName(), infos, null, null, null);
+            }
+            return info;
+        }
+    }
+
+    /**
+     * A count that only goes up, and its rate over the last period.
+     */
+    static final class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+        private long lastCount;
+        private volatile double rate;
+
+        Counter() {
+            super("Count", "RatePerSecond");
+        }
+
+        void increment() {
+            count.increment();
+        }
+
+        void add(long n) {
+            count.add(n);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        @Override
+        void sample(int seconds) {
+            long now = count.sum();
+            rate = (double) (now - lastCount) / seconds;
+            lastCount = now;
+        }
+
+        @Override
+        Object get(String attribute) {
+            return attribute.equals("Count") ? (Object) count.sum() : (Object) rate;
+        }
+
+        @Override
+        void dump(StringBuilder out) {
+            out.append(String.format("%.1f/s", rate));
+        }
+    }
+
+    /**
+     * A value read when it is asked for, like the number of clients.
+     */
+    static final class Gauge extends Metric {
+        private final LongSupplier value;
+
+        Gauge(LongSupplier value) {
+            super("Value");
+            this.value = value;
+        }
+
+        @Override
+        Object get(String attribute) {
+            return value.getAsLong();
+        }
+
+        @Override
+        void dump(StringBuilder out) {
+            out.append(value.getAsLong());
+        }
+    }
+
+    /**
+     * Distribution of durations (in nanoseconds) or sizes (in bytes), with about 12% precision.
+     *
+     * Values go into 4 buckets per power of two. Every thread records into one of a few stripes, each a whole
+     * run of buckets with a cache line of padding around it, so threads recording at once rarely share a cache line.
+     */
+    static final class Histogram extends Metric {
+        private static final int SUB_BUCKETS = 4;  // per power of two
+        private static final int BUCKETS = 64 * SUB_BUCKETS;
+        private static final int STRIPES = 4;
+        private static final int PADDING = 8;  // longs, one cache line, before every stripe and after the last one
+        private static final int STRIPE_LENGTH = PADDING + BUCKETS;
+
+        private final boolean nanos;
+        private volatile Window window = new Window();
+        private volatile Window last = new Window();  // the finished period that is reported
+        private final LongAdder totalCount = new LongAdder();
+
+        /**
+         * @param nanos true if the values are durations, only changes how they are dumped
+         */
+        Histogram(boolean nanos) {
+            super("Count", "TotalCount", "Mean", "P50", "P90", "P99", "Max");
+            this.nanos = nanos;
+        }
+
+        void record(long value) {
+            window.record(Math.max(0, value));
+            totalCount.increment();
+        }
+
+        @Override
+        void sample(int seconds) {
+            last = window;
+            window = new Window();
+        }
+
+        long percentile(double q) {
+            return last.percentile(q);
+        }
+
+        long count() {
+            return last.count.sum();
+        }
+
+        long max() {
+            return last.max.get();
+        }
+
+        double stdDev() {
+            return last.stdDev();
+        }
+
+        @Override
+        Object get(String attribute) {
+            var w = last;
+            switch (attribute) {
+                case "Count": return w.count.sum();
+                case "TotalCount": return totalCount.sum();
+                case "Mean": return w.mean();
+                case "P50": return w.percentile(0.5);
+                case "P90": return w.percentile(0.9);
+                case "P99": return w.percentile(0.99);
+                case "Max": return w.max.get();
+                default: throw new IllegalArgumentException(attribute);
+            }
+        }
+
+        @Override
+        void dump(StringBuilder out) {
+            var w = last;
+            if (nanos) {
+                out.append(String.format("%.3f/%.3f/%.3fms", w.percentile(0.5) / 1e6, w.percentile(0.99) / 1e6,
+                        w.max.get() / 1e6));
+            } else {
+                out.append(w.percentile(0.5)).append('/').append(w.percentile(0.99)).append('/').append(w.max.get());
+            }
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int log = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (log - 2)) & (SUB_BUCKETS - 1);
+            return (log - 1) * SUB_BUCKETS + sub;
+        }
+
+        /** Largest value that falls in the bucket. */
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int log = bucket / SUB_BUCKETS + 1;
+            int sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (log - 2)) - 1;
+        }
+
+        private static final class Window {
+            // stripe-major: stripe s has bucket b at s * STRIPE_LENGTH + PADDING + b
+            final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIPE_LENGTH + PADDING);
+            final LongAdder count = new LongAdder();
+            final LongAdder sum = new LongAdder();
+            final DoubleAdder sumOfSquares = new DoubleAdder();  // a double, squared nanoseconds overflow a long
+            final AtomicLong max = new AtomicLong();
+
+            void record(long value) {
+                int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+                counts.incrementAndGet(stripe * STRIPE_LENGTH + PADDING + bucket(value));
+                count.increment();
+                sum.add(value);
+                sumOfSquares.add((double) value * value);
+                long m;
+                while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+                    // retry, someone else raised it
+                }
+            }
+
+            double mean() {
+                long n = count.sum();
+                return n == 0 ? 0 : (double) sum.sum() / n;
+            }
+
+            double stdDev() {
+                long n = count.sum();
+                if (n < 2) return 0;
+                double mean = (double) sum.sum() / n;
+                return Math.sqrt(Math.max(0, sumOfSquares.sum() / n - mean * mean));
+            }
+
+            long percentile(double q) {
+                long n = count.sum();
+                if (n == 0) return 0;
+                long rank = Math.max(1, (long) Math.ceil(q * n));
+                long seen = 0;
+                for (int b = 0; b < BUCKETS; b++) {
+                    for (int s = 0; s < STRIPES; s++) {
+                        seen += counts.get(s * STRIPE_LENGTH + PADDING + b);
+                    }
+                    if (seen >= rank) return Math.min(upperBound(b), max.get());
+                }
+                return max.get();
+            }
+        }
+    }
+}
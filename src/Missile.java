@@ -1,17 +1,15 @@
 class Missile extends Sprite {
-    int dy = -10;
+    static final int DEFAULT_DY = -10;
+
+    int dy = DEFAULT_DY;
     int dx = 0;
 
     Missile(int x, int y) {
-        super(x, y);
-        loadImage(FILENAME);
-        loadImageDimensions();
+        super(x, y, SpriteType.MISSILE);
     }
 
     void move() {
         y += dy;
         x += dx;
     }
-
-    private static final String FILENAME = "missile.png";
 }
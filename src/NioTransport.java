@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking transport: one selector thread accepts, reads and writes for every client.
+ *
+ * Outbound frames are queued per connection and written whenever the socket can take them,
+ * so a slow client only fills up its own queue. Once a queue holds more than MAX_BACKLOG_BYTES,
+ * new frames for that client are skipped, and a client that keeps skipping for MAX_SKIPPED_FRAMES
+ * frames in a row is disconnected.
+ */
+class NioTransport implements Runnable {
+    private static final int MAX_BACKLOG_BYTES = 256 * 1024;
+    private static final int MAX_SKIPPED_FRAMES = 100;
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    private final Selector selector;
+    private final ServerSocketChannel listener;
+    private final ConcurrentLinkedQueue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    NioTransport(int port) throws IOException {
+        selector = Selector.open();
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port));
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public void run() {
+        while (listener.isOpen()) {
+            try {
+                selector.select();
+
+                // connections that were given frames by other threads
+                NioConnection c;
+                while ((c = pendingWrites.poll()) != null) {
+                    c.flush();
+                }
+
+                var keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    var key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    c = (NioConnection) key.attachment();
+                    if (key.isReadable()) c.read();
+                    if (key.isValid() && key.isWritable()) c.flush();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = listener.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        var c = new NioConnection(channel);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+    }
+
+    class NioConnection extends Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE_LENGTH);
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        private int queuedBytes = 0;
+        private int skippedFrames = 0;
+        private long headSince = 0;  // when the socket was first offered the frame at the head of the queue
+        private int headWritten = 0;  // bytes of that frame written so far
+        private volatile boolean closed = false;
+        private boolean left = false;
+
+        NioConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        InetAddress remoteAddress() {
+            return channel.socket().getInetAddress();
+        }
+
+        @Override
+        boolean send(ByteBuffer frame, boolean flush) {
+            if (closed) return false;
+            synchronized (this) {
+                if (queuedBytes > MAX_BACKLOG_BYTES) {
+                    recordSkipped();
+                    if (++skippedFrames >= MAX_SKIPPED_FRAMES) close();
+                    return false;
+                }
+                skippedFrames = 0;
+                queue.add(frame.duplicate());
+                queuedBytes += frame.remaining();
+            }
+            if (flush) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+            return true;
+        }
+
+        @Override
+        void close() {
+            closed = true;
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Writes as much of the queue as the socket takes, and asks for OP_WRITE if some is left.
+         * Selector thread only.
+         */
+        void flush() {
+            if (closed) {
+                disconnect();
+                return;
+            }
+            try {
+                synchronized (this) {
+                    while (!queue.isEmpty()) {
+                        ByteBuffer head = queue.peek();
+                        if (headSince == 0) headSince = System.nanoTime();
+                        int written = channel.write(head);
+                        queuedBytes -= written;
+                        headWritten += written;
+                        if (head.hasRemaining()) break;
+                        queue.poll();
+                        recordWrite(headWritten, System.nanoTime() - headSince);
+                        headSince = 0;
+                        headWritten = 0;
+                    }
+                    key.interestOps(queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException | CancelledKeyException e) {
+                disconnect();
+            }
+        }
+
+        /**
+         * Reads what is available and hands every complete line to the server. Selector thread only.
+         */
+        void read() {
+            try {
+                if (channel.read(in) < 0) {
+                    disconnect();
+                    return;
+                }
+                in.flip();
+                int start = in.position();
+                for (int i = start; i < in.limit(); i++) {
+                    if (in.get(i) != '\n') continue;
+                    int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                    handleLine(new String(in.array(), start, end - start));
+                    start = i + 1;
+                }
+                in.position(start);
+                in.compact();
+                if (!in.hasRemaining()) disconnect();  // a line longer than anything we expect
+            } catch (IOException e) {
+                System.out.println("Socket disconnected.");
+                disconnect();
+            } catch (RuntimeException e) {
+                // a malformed line: drop this client, the selector thread has to go on serving the others
+                System.out.println("Disconnecting a client that sent a malformed line: " + e);
+                disconnect();
+            }
+        }
+
+        private void handleLine(String line) throws IOException {
+            if (closed) return;
+            if (handshake == null) {
+                handshake = Handshake.parse(line);
+                Server.join(this);
+            } else {
+                Server.processData(this, line);
+            }
+        }
+
+        private void disconnect() {
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (handshake != null && !left) {
+                left = true;
+                Server.leave(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A connection to nowhere: takes every frame and drops it. For rooms without real clients, see Replay and BenchmarkWorld.
+ */
+final class NullConnection extends Connection {
+    @Override
+    boolean send(ByteBuffer frame, boolean flush) {
+        return true;
+    }
+
+    @Override
+    void close() {
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a task over [0, n) split into chunks on the common fork-join pool, and waits for all of them.
+ * Chunks must only write to their own part of any shared array.
+ */
+final class ParallelRange {
+    interface Task {
+        void run(int from, int to);
+    }
+
+    private ParallelRange() {
+    }
+
+    static void forEach(int n, int chunkSize, Task task) {
+        if (n <= chunkSize) {
+            task.run(0, n);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new Split(task, 0, n, chunkSize));
+    }
+
+    @SuppressWarnings("serial")  // never serialized, only forked
+    private static final class Split extends RecursiveAction {
+        private final Task task;
+        private final int from, to, chunkSize;
+
+        Split(Task task, int from, int to, int chunkSize) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                task.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Split(task, from, mid, chunkSize), new Split(task, mid, to, chunkSize));
+        }
+    }
+}
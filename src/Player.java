@@ -1,9 +1,11 @@
-import java.util.concurrent.CopyOnWriteArrayList;
-
 class Player extends Sprite {
 
 
     private String name;
+    int id;  // assigned by the server, owner id of the player's missiles
+
+    volatile boolean hasLeft;  // set when the client disconnects, the game thread then removes the player
+    boolean leaving;  // hasLeft as of the start of the tick, game task only
 
     int firingRate = 20; // number of ticks between firing
     int firingCounter;
@@ -15,17 +17,32 @@ class Player extends Sprite {
 
     boolean isFiring;
 
+    // the same five buttons as a bitmask, see buttons()
+    static final int UP = 1, DOWN = 2, LEFT = 4, RIGHT = 8, FIRE = 16;
+
+    final InputQueue inputs = new InputQueue();  // server side only, drained by the game task
+    int inputTicks;  // server side: number of moves made since inputs.appliedSeq was applied
+
     private int speed = 10;
 
     int health = 3;
 
-    CopyOnWriteArrayList<Missile> missiles = new CopyOnWriteArrayList<>();
 
     Player (int x, int y) {
-        super(x, y);
+        super(x, y, SpriteType.PLAYER);
+    }
+
+    int buttons() {
+        return (isMovingUp ? UP : 0) | (isMovingDown ? DOWN : 0) | (isMovingLeft ? LEFT : 0)
+                | (isMovingRight ? RIGHT : 0) | (isFiring ? FIRE : 0);
+    }
 
-        loadImage(FILENAME);
-        loadImageDimensions();
+    void setButtons(int buttons) {
+        isMovingUp = (buttons & UP) != 0;
+        isMovingDown = (buttons & DOWN) != 0;
+        isMovingLeft = (buttons & LEFT) != 0;
+        isMovingRight = (buttons & RIGHT) != 0;
+        isFiring = (buttons & FIRE) != 0;
     }
 
     void move() {
@@ -53,11 +70,6 @@ class Player extends Sprite {
         y += dy;
     }
 
-    void fire() {
-        int midX = x + width/2;
-        missiles.add(new Missile(midX, y));
-    }
-
     /**
      * Check if health is positive
      * @return
@@ -66,10 +78,6 @@ class Player extends Sprite {
         return health > 0;
     }
 
-    void addMissile(Missile m) {
-        missiles.add(m);
-    }
-
     void setName(String name) {
         this.name = name;
     }
@@ -77,6 +85,4 @@ class Player extends Sprite {
     String getName() {
         return name;
     }
-
-    private static final String FILENAME = "player.png";
 }
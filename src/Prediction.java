@@ -0,0 +1,64 @@
+/**
+ * Client-side prediction for the local player.
+ *
+ * Every client tick the buttons are recorded with the sequence number they were sent with, and the predicted ship
+ * moves right away, by the same rules as on the server (Player.move). When a snapshot arrives, the server
+ * says which input it had applied last and for how many ticks (INPUT_ACK). The prediction then restarts from the
+ * server's position at that point in the history, and replays the ticks the server hasn't seen yet.
+ */
+final class Prediction {
+    private static final int HISTORY_SIZE = 256;  // ticks, about 4 seconds
+
+    private final int[] seqs = new int[HISTORY_SIZE];
+    private final int[] buttons = new int[HISTORY_SIZE];
+    private long ticks = 0;  // number of ticks recorded so far
+    private final Player ship = new Player(0, 0);
+    private boolean ready = false;  // false until the first snapshot gives the ship a position
+
+    /**
+     * Records one tick of input and moves the ship with it.
+     */
+    synchronized void step(int seq, int buttons) {
+        int i = (int) (ticks++ % HISTORY_SIZE);
+        seqs[i] = seq;
+        this.buttons[i] = buttons;
+        ship.setButtons(buttons);
+        ship.move();
+    }
+
+    /**
+     * Rewinds to the server's position, after inputTicks moves with input inputSeq, and replays the rest.
+     * If that input is no longer in the history the ship just jumps to the server's position.
+     */
+    synchronized void reconcile(int inputSeq, int inputTicks, int serverX, int serverY) {
+        ship.x = serverX;
+        ship.y = serverY;
+        ready = true;
+
+        // the first tick that used inputSeq. Sequence numbers never go down, so walk back while they are >= inputSeq.
+        long first = -1;
+        for (long t = ticks - 1; t >= 0 && t >= ticks - HISTORY_SIZE; t--) {
+            int seq = seqs[(int) (t % HISTORY_SIZE)];
+            if (seq < inputSeq) break;
+            if (seq == inputSeq) first = t;
+        }
+        if (first < 0) return;
+
+        for (long t = Math.min(first + inputTicks, ticks); t < ticks; t++) {
+            ship.setButtons(buttons[(int) (t % HISTORY_SIZE)]);
+            ship.move();
+        }
+    }
+
+    synchronized boolean isReady() {
+        return ready;
+    }
+
+    synchronized int getX() {
+        return ship.x;
+    }
+
+    synchronized int getY() {
+        return ship.y;
+    }
+}
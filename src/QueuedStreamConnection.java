@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A blocking-socket connection with its own writer thread.
+ *
+ * send() only queues the frame, so the DataSender never waits on a slow socket. Once the queue holds more than
+ * MAX_BACKLOG_BYTES, new frames are skipped, and if the writer has been stuck in one write for WRITE_TIMEOUT
+ * the socket is closed, which also frees the writer thread.
+ */
+class QueuedStreamConnection extends StreamConnection {
+    private static final int MAX_BACKLOG_BYTES = 256 * 1024;
+    private static final long WRITE_TIMEOUT = 5_000_000_000L;  // nanoseconds
+    private static final ByteBuffer CLOSED = ByteBuffer.allocate(0);
+
+    private final LinkedBlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
+    private volatile int queuedBytes = 0;
+    private volatile long writeStartedAt = 0;  // 0 when the writer isn't writing
+
+    QueuedStreamConnection(Socket socket, Handshake handshake, Executor writers) throws IOException {
+        super(socket, handshake);
+        writers.execute(this::writeLoop);
+    }
+
+    @Override
+    boolean send(ByteBuffer frame, boolean flush) {
+        long started = writeStartedAt;
+        if (started != 0 && System.nanoTime() - started > WRITE_TIMEOUT) {
+            close();
+            return false;
+        }
+        if (queuedBytes > MAX_BACKLOG_BYTES) {
+            recordSkipped();
+            return false;
+        }
+
+        synchronized (queue) {
+            queuedBytes += frame.remaining();
+        }
+        queue.add(frame);
+        return true;
+    }
+
+    @Override
+    void close() {
+        queue.add(CLOSED);
+        super.close();
+    }
+
+    /**
+     * Writes frames as they are queued, and flushes whenever the queue runs empty.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer frame = queue.take();
+                if (frame == CLOSED) return;
+
+                writeStartedAt = System.nanoTime();
+                super.send(frame, queue.isEmpty());
+                writeStartedAt = 0;
+
+                synchronized (queue) {
+                    queuedBytes -= frame.remaining();
+                }
+            }
+        } catch (IOException e) {
+            super.close();  // the Handler's read fails and it cleans up
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Re-runs a session recorded with -Dnewgame.record (see InputLog), headless and as fast as possible,
+ * and checks that it goes through the same states.
+ *
+ * java Replay [log] [runs]
+ *   runs: replays the log this many times (default 1), so a profiler gets a warmed-up, repeatable workload
+ *
+ * The room plays the default waves unless given the same -Dnewgame.waves as the server.
+ *
+ * Every run prints its ticks per second, the tick time percentiles and the slowest tick,
+ * and the first tick where the state differs from the recording, if there is one.
+ */
+final class Replay {
+    private Replay() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: java Replay [log] [runs]");
+            return;
+        }
+        // like the server, never start the AWT toolkit
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        Path file = Paths.get(args[0]);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        boolean same = true;
+        for (int run = 1; run <= runs; run++) {
+            same &= replay(file, run);
+        }
+        if (!same) System.exit(1);
+    }
+
+    /**
+     * @return true if every CHECK matched
+     */
+    static boolean replay(Path file, int run) throws IOException {
+        try (var log = new InputLog.Reader(file)) {
+            var room = new Room(log.room, log.seed);
+            var connections = new HashMap<Integer, Connection>();
+            long[] tickNanos = new long[1024];
+            int checks = 0, diverged = -1;
+            long start = System.nanoTime();
+
+            while (log.next()) {
+                // the steps before this record's tick
+                while (room.tick() < log.tick) {
+                    int t = room.tick();
+                    if (t == tickNanos.length) tickNanos = Arrays.copyOf(tickNanos, t * 2);
+                    long stepStart = System.nanoTime();
+                    room.game.timeStep();
+                    tickNanos[t] = System.nanoTime() - stepStart;
+                }
+
+                switch (log.type) {
+                    case InputLog.JOIN:
+                        // the same player Server.join makes
+                        var player = new Player(Client.PLAYER_START_X, Client.PLAYER_START_Y);
+                        player.setName(log.name);
+                        player.id = log.playerId;
+                        var c = new NullConnection();
+                        c.player = player;
+                        connections.put(player.id, c);
+                        room.join(c);
+                        break;
+                    case InputLog.LEAVE:
+                        room.leave(connections.remove(log.playerId));
+                        break;
+                    case InputLog.INPUT:
+                        connections.get(log.playerId).player.inputs.offer(log.buttons);
+                        break;
+                    case InputLog.CHECK:
+                        checks++;
+                        if (diverged < 0 && room.stateHash() != log.hash) diverged = log.tick;
+                        break;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+
+            int ticks = room.tick();
+            var sorted = Arrays.copyOf(tickNanos, ticks);
+            Arrays.sort(sorted);
+            int slowest = 0;
+            for (int t = 1; t < ticks; t++) {
+                if (tickNanos[t] > tickNanos[slowest]) slowest = t;
+            }
+            System.out.printf("run %d: %d ticks in %.1f ms, %.0f ticks/s, tick p50/p99/max = %.1f/%.1f/%.1f us (slowest: tick %d)%n",
+                    run, ticks, nanos / 1e6, ticks * 1e9 / nanos, percentile(sorted, 0.5) / 1e3,
+                    percentile(sorted, 0.99) / 1e3, percentile(sorted, 1) / 1e3, slowest);
+            if (diverged >= 0) {
+                System.out.println("run " + run + ": state differs from the recording at tick " + diverged);
+            } else {
+                System.out.println("run " + run + ": " + checks + " checks, same state as the recording");
+            }
+            return diverged < 0;
+        }
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(q * (sorted.length - 1)))];
+    }
+}
@@ -0,0 +1,885 @@
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One match: its own players, enemies and missiles, its own game loop and its own broadcast.
+ *
+ * A room has no threads of its own. Its ticks and sends are tasks on the server's worker pool,
+ * so many rooms share the cores. The game task never runs concurrently with itself, and neither does the DataSender.
+ */
+class Room {
+    private static final int SEND_DELAY = Integer.getInteger("newgame.sendDelay", 10);  // milliseconds between snapshots
+    private static final int GAME_DELAY = 15;
+    private static final int TICK_RATE = Integer.getInteger("newgame.tickRate", 0);  // ticks per second, 0 = one every GAME_DELAY
+    private static final int MAX_CATCH_UP_TICKS = Integer.getInteger("newgame.maxCatchUpTicks", 5);
+    // rooms with at least this many enemies and missiles split their tick across the fork-join pool, 0 = never
+    private static final int PARALLEL_THRESHOLD = Integer.getInteger("newgame.parallelThreshold", 4096);
+    private static final int PARALLEL_CHUNK = 1024;  // slots per fork-join task
+    private static final Long SEED = Long.getLong("newgame.seed");  // -Dnewgame.seed=[n] for every room, otherwise each picks its own
+    private static final String RECORD_DIR = System.getProperty("newgame.record");  // -Dnewgame.record=[dir], see InputLog
+
+    final String name;
+    final long seed;
+    // everything random in the game comes from here, so the seed and the InputLog replay it, see nextRandom
+    private long randomState;
+    private InputLog log;  // null unless recording
+
+    private ByteBuffer checkpointState = ByteBuffer.allocate(16 * 1024);
+    volatile ByteBuffer latestCheckpoint;  // shared copy of checkpointState, null before the first checkpoint
+
+    StringBuilder gameState = new StringBuilder();  // the state of each object in the game is encoded in one long string.
+    private StringBuilder section = new StringBuilder();  // scratch buffer for sections that start with their own count
+    private ByteBuffer textState = ByteBuffer.allocate(64 * 1024);  // gameState, encoded
+    // UTF-8, as the client decodes names; a lone surrogate in a name gets '?'
+    private final CharsetEncoder textEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer binaryState = ByteBuffer.allocate(64 * 1024);  // the same state, as a BinaryProtocol SNAPSHOT frame
+    private ByteBuffer rosterState = ByteBuffer.allocate(4 * 1024);
+    private ByteBuffer rosterFrame;  // shared copy of rosterState
+    private int rosterFrameVersion = -1;
+
+    // the game task publishes a snapshot after every tick, the DataSender encodes each one at most once
+    private volatile WorldSnapshot latestSnapshot;
+    private int sentTick = -1;
+
+    // delta compression: recent snapshots by seq, and this send's DELTA frames by baseline seq
+    private static final int HISTORY_SIZE = 64;
+    private WorldSnapshot[] history = new WorldSnapshot[HISTORY_SIZE];
+    private ByteBuffer deltaState = ByteBuffer.allocate(16 * 1024);
+    private ByteBuffer[] deltaFrames = new ByteBuffer[4];
+    private int[] deltaBaselines = new int[4];
+    private int deltaCount = 0;
+
+    static final long TICK_NANOS = TICK_RATE > 0 ? 1_000_000_000L / TICK_RATE : GAME_DELAY * 1_000_000L;
+    // every CHECKPOINT_TICKS the game task encodes the room for the server's Checkpoint, 0 = never
+    static final int CHECKPOINT_TICKS = Checkpoint.FILE == null ? 0 : (int) Math.max(1, Checkpoint.PERIOD * 1_000_000L / TICK_NANOS);
+    private TickScheduler scheduler = new TickScheduler(TICK_NANOS, MAX_CATCH_UP_TICKS);
+    private int skippedSnapshots = 0;  // while the game is overloaded, only every other snapshot is sent
+
+    private int waveTick = 0;  // where the room is in WAVES, game task only
+    private volatile int tick = 0;  // number of time steps so far, written by the game task only
+    volatile int enemyCount, missileCount;  // as of the last tick, for the metrics
+
+    CopyOnWriteArraySet<Connection> clients = new CopyOnWriteArraySet<>();
+    private CopyOnWriteArrayList<Player> players = new CopyOnWriteArrayList<>();  // modified by the game task only
+    // joins wait here for the start of the next tick, see Game.timeStep
+    private final ConcurrentLinkedQueue<Connection> joining = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger joiningCount = new AtomicInteger();  // queued or joined this tick, not yet in clients
+    private final ArrayList<Connection> joined = new ArrayList<>();  // game task only
+    private final AtomicInteger rosterVersion = new AtomicInteger();  // bumped whenever a player joins or leaves
+    // players restored from a checkpoint whose clients haven't come back yet, see reclaim
+    private final CopyOnWriteArrayList<Player> returning = new CopyOnWriteArrayList<>();
+
+    // -Dnewgame.waves=[file] for scripted waves (see WaveSchedule), otherwise the default trickle
+    static final WaveSchedule WAVES = loadWaves();
+
+    // enemies and missiles are only modified by the game task. The enemies fit the schedule's peak from the start,
+    // so a wave never grows the pools in the middle of a tick
+    EntityStore enemies = new EntityStore(SpriteType.ENEMY, Math.max(256, WAVES.peak()));
+    EntityStore missiles = new EntityStore(SpriteType.MISSILE, 1024);
+
+    // broad phase for collisions against enemies. Covers the play-area, from where enemies spawn to where they are culled.
+    private static final int SPAWN_Y = -100;
+    private static final int OUT_OF_BOUNDS_BUFFER = 50;
+    private CollisionGrid enemyGrid = new CollisionGrid(0, SPAWN_Y, Client.DEFAULT_WIDTH,
+            Client.DEFAULT_HEIGHT + OUT_OF_BOUNDS_BUFFER - SPAWN_Y, 64);
+
+    // parallel tick: one result per slot, written by the fork-join tasks and applied in slot order by the game task
+    private int[] slotResults = new int[enemies.capacity()];
+    private boolean parallelTick = false;
+    int parallelThreshold = PARALLEL_THRESHOLD;  // enemies and missiles from which a tick is split, 0 for never
+
+    final Game game = new Game();
+    private final Runnable gameLoop = this::runDueTicks;
+    private ScheduledExecutorService workers;
+    private volatile boolean running = false;
+    private ScheduledFuture<?> gameTask, sendTask;
+
+    Room(String name) {
+        this(name, SEED != null ? SEED : System.nanoTime());
+    }
+
+    Room(String name, long seed) {
+        this.name = name;
+        this.seed = seed;
+        randomState = seed;
+        enemyGrid.reserve(enemies.capacity());
+    }
+
+    private static WaveSchedule loadWaves() {
+        String file = System.getProperty("newgame.waves");
+        try {
+            return WaveSchedule.load(file, Client.DEFAULT_HEIGHT + OUT_OF_BOUNDS_BUFFER - SPAWN_Y);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read the waves in " + file + ": " + e, e);
+        }
+    }
+
+    /**
+     * Rebuilds a room from its checkpoint, see {@link #checkpoint()}. Its players wait for their clients to reclaim
+     * them, and it doesn't run until started.
+     */
+    static Room restore(ByteBuffer b) throws IOException {
+        var room = new Room(getString(b), b.getLong());
+        room.tick = b.getInt();
+        room.randomState = b.getLong();
+        room.waveTick = BinaryProtocol.getVarInt(b);
+        int count = BinaryProtocol.getVarInt(b);
+        for (int i = 0; i < count; i++) {
+            int id = BinaryProtocol.getVarInt(b);
+            var p = new Player(0, 0);
+            p.setName(getString(b));
+            p.id = id;
+            p.x = BinaryProtocol.getSignedVarInt(b);
+            p.y = BinaryProtocol.getSignedVarInt(b);
+            p.health = BinaryProtocol.getSignedVarInt(b);
+            p.firingRate = BinaryProtocol.getVarInt(b);
+            p.firingCounter = BinaryProtocol.getVarInt(b);
+            p.setButtons(b.get());
+            room.players.add(p);
+        }
+        room.enemies.read(b);
+        room.missiles.read(b);
+        if (room.stateHash() != b.getLong()) throw new IOException("room " + room.name + " is not the one checkpointed");
+        room.waveTick %= WAVES.length();  // the server may have been restarted with other waves
+
+        // nobody holds any buttons until they are back
+        for (Player p : room.players) {
+            p.setButtons(0);
+        }
+        room.returning.addAll(room.players);
+        room.latestCheckpoint = b.flip().asReadOnlyBuffer();
+        return room;
+    }
+
+    /**
+     * Encodes everything the simulation depends on, see restore. Game task only.
+     *
+     * [nameLength] [name, utf-8] [seed: int64] [tick: int32] [randomState: int64] [waveTick]
+     * [P] ([id] [nameLength] [name, utf-8] [x] [y] [health] [firingRate] [firingCounter] [buttons: byte]) * P
+     * [enemies, see EntityStore.write] [missiles] [stateHash: int64]
+     */
+    ByteBuffer checkpoint() {
+        while (true) {
+            try {
+                var b = checkpointState.clear();
+                putString(b, name);
+                b.putLong(seed);
+                b.putInt(tick);
+                b.putLong(randomState);
+                BinaryProtocol.putVarInt(b, waveTick);
+                BinaryProtocol.putVarInt(b, players.size());
+                for (Player p : players) {
+                    BinaryProtocol.putVarInt(b, p.id);
+                    putString(b, p.getName());
+                    BinaryProtocol.putSignedVarInt(b, p.x);
+                    BinaryProtocol.putSignedVarInt(b, p.y);
+                    BinaryProtocol.putSignedVarInt(b, p.health);
+                    BinaryProtocol.putVarInt(b, p.firingRate);
+                    BinaryProtocol.putVarInt(b, p.firingCounter);
+                    b.put((byte) p.buttons());
+                }
+                enemies.write(b);
+                missiles.write(b);
+                b.putLong(stateHash());
+                return BinaryProtocol.share(b);
+            } catch (BufferOverflowException e) {
+                checkpointState = BinaryProtocol.grow(checkpointState);
+            }
+        }
+    }
+
+    private static void putString(ByteBuffer b, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        BinaryProtocol.putVarInt(b, bytes.length);
+        b.put(bytes);
+    }
+
+    private static String getString(ByteBuffer b) {
+        var bytes = new byte[BinaryProtocol.getVarInt(b)];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A random int in [0, bound), from a SplitMix64 sequence: all of its state is one long, which a checkpoint can save.
+     */
+    private int nextRandom(int bound) {
+        long z = randomState += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (((z ^ (z >>> 31)) >>> 1) % bound);
+    }
+
+    /**
+     * Schedules the game and the DataSender on the worker pool.
+     */
+    void start(ScheduledExecutorService workers) {
+        this.workers = workers;
+        // a log replays from tick 0, so a room restored from a checkpoint isn't recorded
+        if (RECORD_DIR != null && tick == 0) {
+            var file = Paths.get(RECORD_DIR, "room-" + name + "-" + System.currentTimeMillis() + ".log");
+            try {
+                log = InputLog.create(file, name, seed);
+                System.out.println("Recording room " + name + " to " + file);
+            } catch (IOException e) {
+                System.out.println("Can't record room " + name + " to " + file + ": " + e);
+            }
+        }
+        running = true;
+        scheduler.start(System.nanoTime());
+        gameTask = workers.schedule(gameLoop, scheduler.nanosUntilNextTick(System.nanoTime()), TimeUnit.NANOSECONDS);
+        sendTask = workers.scheduleWithFixedDelay(new DataSender(), SEND_DELAY, SEND_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        // waits for a game task that is running, so the log is closed after its last record, not in the middle of a tick
+        synchronized (gameLoop) {
+            running = false;
+            if (gameTask != null) gameTask.cancel(false);
+            if (sendTask != null) sendTask.cancel(false);
+            if (log != null) log.close(tick);
+        }
+    }
+
+    /**
+     * Runs the ticks that are due, then schedules itself for the next one.
+     */
+    private void runDueTicks() {
+        synchronized (gameLoop) {  // see stop
+            if (!running) return;
+            long overruns = scheduler.overruns, dropped = scheduler.droppedTicks;
+            try {
+                scheduler.runDueTicks(System.nanoTime(), game);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            Metrics.TICK_OVERRUNS.add(scheduler.overruns - overruns);
+            Metrics.TICKS_DROPPED.add(scheduler.droppedTicks - dropped);
+            long wait = Math.max(0, scheduler.nanosUntilNextTick(System.nanoTime()));
+            gameTask = workers.schedule(gameLoop, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int playerCount() {
+        return players.size();
+    }
+
+    /**
+     * Clients in the room, including the ones still joining, and the restored players that haven't come back yet.
+     */
+    int clientCount() {
+        return clients.size() + joiningCount.get() + returning.size();
+    }
+
+    /**
+     * Hands a restored player with the given name back to its returning client,
+     * which then joins with it like any other client.
+     * @return null if no such player is waiting
+     */
+    Player reclaim(String name) {
+        for (Player p : returning) {
+            if (p.getName().equals(name) && returning.remove(p)) return p;
+        }
+        return null;
+    }
+
+    /**
+     * Gives up on the restored players that haven't been reclaimed: they leave like disconnected clients.
+     * @return how many there were
+     */
+    int expireReturning() {
+        int expired = 0;
+        for (Player p : returning) {
+            if (returning.remove(p)) {
+                p.hasLeft = true;
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Number of time steps so far.
+     */
+    int tick() {
+        return tick;
+    }
+
+    /**
+     * Puts the tick, the wave position and the random sequence back where a new room starts them.
+     * For benchmarks, which restore the players and entities themselves. Only while the room isn't running.
+     */
+    void rewind() {
+        tick = 0;
+        waveTick = 0;
+        randomState = seed;
+    }
+
+    /**
+     * Queues the client's player to join at the start of the next tick.
+     * The client itself is added at the end of that tick, so its first snapshot already has its player.
+     */
+    void join(Connection c) throws IOException {
+        joiningCount.incrementAndGet();
+        joining.add(c);
+    }
+
+    void leave(Connection c) {
+        clients.remove(c);
+        if (joining.remove(c)) joiningCount.decrementAndGet();
+        if (c.player != null) c.player.hasLeft = true;  // the game task removes the player and its missiles
+    }
+
+    /**
+     * A hash of everything the simulation depends on, to check that a replay reaches the same state. Game task only.
+     */
+    long stateHash() {
+        long h = tick;
+        h = h * 31 + waveTick;
+        for (Player p : players) {
+            h = h * 31 + p.id;
+            h = h * 31 + p.x;
+            h = h * 31 + p.y;
+            h = h * 31 + p.health;
+            h = h * 31 + p.firingCounter;
+            h = h * 31 + p.buttons();
+        }
+        h = enemies.hash(h);
+        return missiles.hash(h);
+    }
+
+    /**
+     * Send the current game state to each of the room's clients every SEND_DELAY milliseconds.
+     *
+     * GAME STATE FORMAT (full ver.)
+     * note:
+     *  > the arguments in each line are separated with spaces
+     *  > no extra newlines (\n)
+     * ------------------------------------------------------------------------------------------------------------
+     *
+     * START
+     *
+     * PLAYERS
+     * [N = number of players]
+     * [player1_Name] [player1_X] [player1_Y]
+     * ...
+     * [playerN_Name] [playerN_X] [playerN_Y]
+     *
+     * PLAYER_MISSILES
+     * [player1_Name] [K = number of missiles] [missile1_X] [missile1_Y] ... [missileK_X] [missileK_Y]
+     * [player2_Name] [K = number of missiles] [missile1_X] [missile1_Y] ... [missileK_X] [missileK_Y]
+     *  ...
+     * [playerN_Name] [K = number of missiles] [missile1_X] [missile1_Y] ... [missileK_X] [missileK_Y]
+     *
+     * ENEMIES
+     * [N = number of enemies]
+     * [enemy1_X] [enemy1_Y]
+     * ...
+     * [enemyN_X] [enemyN_Y]
+     *
+     * STOP
+     * ------------------------------------------------------------------------------------------------------------
+     *
+     * Clients that asked for it in the handshake get the same state in BinaryProtocol frames instead.
+     * Each format is encoded at most once per send, then written to every client that uses it.
+     *
+     * todo enemy missiles? Special enemies?
+     */
+    class DataSender implements Runnable {
+        @Override
+        public void run() {
+            try {
+                var snapshot = latestSnapshot;
+                if (snapshot == null || snapshot.tick == sentTick) return;  // nothing new since the last send
+
+                // the game can't keep up: send fewer snapshots rather than slow the game down
+                if (scheduler.isOverloaded() && skippedSnapshots++ % 2 == 0) return;
+                sentTick = snapshot.tick;
+
+                boolean anyText = false, anyBinary = false, anyDelta = false;
+                for (Connection c : clients) {
+                    if (c.handshake.delta) anyDelta = true;
+                    else if (c.handshake.binary) anyBinary = true;
+                    else anyText = true;
+                }
+
+                // every format is encoded once into a read-only frame, shared by all clients that use it
+                ByteBuffer textFrame = null, binaryFrame = null;
+                if (anyText) {
+                    long start = System.nanoTime();
+                    updateGameStateString(snapshot);
+                    updateTextGameState();
+                    textFrame = recordEncode(BinaryProtocol.share(textState), start);
+                }
+                if (anyBinary || anyDelta) updateRoster(snapshot);
+                if (anyBinary) {
+                    long start = System.nanoTime();
+                    updateBinaryGameState(snapshot);
+                    binaryFrame = recordEncode(BinaryProtocol.share(binaryState), start);
+                }
+                if (anyDelta) {
+                    history[snapshot.seq % HISTORY_SIZE] = snapshot;
+                    deltaCount = 0;
+                }
+
+                for (Connection c : clients) {
+                    try {
+                        if (c.handshake.binary && c.sentRosterVersion != rosterFrameVersion) {
+                            if (!c.send(rosterFrame, false)) continue;  // too far behind, try again next time
+                            c.sentRosterVersion = rosterFrameVersion;
+                        }
+
+                        if (c.handshake.compactInput && c.handshake.binary) sendInputAck(c, snapshot);
+                        if (c.handshake.delta) c.sendLatest(deltaFrame(snapshot, c.ackedSeq), true);
+                        else if (c.handshake.binary) c.sendLatest(binaryFrame, true);
+                        else c.send(textFrame, true);
+                    } catch (IOException e) {
+                        clients.remove(c);
+                        c.close();  // the transport notices the closed socket and cleans up
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Encodes gameState into textState[0, position).
+     */
+    private void updateTextGameState() {
+        while (true) {
+            textState.clear();
+            textEncoder.reset();
+            CoderResult result = textEncoder.encode(CharBuffer.wrap(gameState), textState, true);
+            if (!result.isOverflow()) result = textEncoder.flush(textState);
+            if (!result.isOverflow()) return;
+            textState = BinaryProtocol.grow(textState);
+        }
+    }
+
+    /**
+     * Encodes the game state into binaryState[0, position).
+     */
+    private void updateBinaryGameState(WorldSnapshot snapshot) {
+        while (true) {
+            try {
+                binaryState.clear();
+                writeSnapshot(binaryState, snapshot);
+                break;
+            } catch (BufferOverflowException e) {
+                binaryState = BinaryProtocol.grow(binaryState);
+            }
+        }
+    }
+
+    /**
+     * Re-encodes rosterFrame if a player joined or left since it was last encoded.
+     */
+    private void updateRoster(WorldSnapshot snapshot) {
+        int version = snapshot.rosterVersion;
+        if (version == rosterFrameVersion) return;
+        while (true) {
+            try {
+                rosterState.clear();
+                writeRoster(rosterState, snapshot);
+                break;
+            } catch (BufferOverflowException e) {
+                rosterState = BinaryProtocol.grow(rosterState);
+            }
+        }
+        rosterFrame = BinaryProtocol.share(rosterState);
+        rosterFrameVersion = version;
+    }
+
+    /**
+     * The DELTA frame from the client's acknowledged snapshot to the current one.
+     * Clients with the same baseline share one frame. If the baseline has already left the history,
+     * the frame has no baseline and holds everything.
+     */
+    private ByteBuffer deltaFrame(WorldSnapshot current, int ackedSeq) {
+        var baseline = ackedSeq < 0 ? null : history[ackedSeq % HISTORY_SIZE];
+        if (baseline != null && baseline.seq != ackedSeq) baseline = null;
+        int baselineSeq = baseline == null ? -1 : baseline.seq;
+
+        for (int i = 0; i < deltaCount; i++) {
+            if (deltaBaselines[i] == baselineSeq) return deltaFrames[i];
+        }
+
+        if (deltaCount == deltaFrames.length) {
+            deltaFrames = Arrays.copyOf(deltaFrames, deltaCount * 2);
+            deltaBaselines = Arrays.copyOf(deltaBaselines, deltaCount * 2);
+        }
+        long start = System.nanoTime();
+        while (true) {
+            try {
+                deltaState.clear();
+                current.writeDelta(deltaState, baseline);
+                break;
+            } catch (BufferOverflowException e) {
+                deltaState = BinaryProtocol.grow(deltaState);
+            }
+        }
+        var frame = recordEncode(BinaryProtocol.share(deltaState), start);
+        deltaFrames[deltaCount] = frame;
+        deltaBaselines[deltaCount++] = baselineSeq;
+        return frame;
+    }
+
+    /**
+     * Tells the client which of its inputs the snapshot includes, see BinaryProtocol.INPUT_ACK.
+     * It goes right before the snapshot's own frame.
+     */
+    private void sendInputAck(Connection c, WorldSnapshot snapshot) throws IOException {
+        var p = snapshot.players;
+        int i = Arrays.binarySearch(p.id, 0, p.count, c.player.id);
+        if (i < 0) return;
+        // the frame is only for this client, so it needs no shared copy, and no new buffer if the transport copies it
+        var b = c.sendLatestCopies() ? c.inputAck.clear() : ByteBuffer.allocate(c.inputAck.capacity());
+        int frame = BinaryProtocol.beginFrame(b, BinaryProtocol.INPUT_ACK);
+        b.putInt(snapshot.tick);
+        BinaryProtocol.putSignedVarInt(b, snapshot.inputSeqs[i]);
+        BinaryProtocol.putVarInt(b, snapshot.inputTicks[i]);
+        BinaryProtocol.endFrame(b, frame);
+        c.sendLatest(b.flip(), false);
+    }
+
+    /**
+     * Records the size of a freshly encoded game state frame, and the time since start it took to encode.
+     */
+    private static ByteBuffer recordEncode(ByteBuffer frame, long start) {
+        Metrics.ENCODE_NANOS.record(System.nanoTime() - start);
+        Metrics.SNAPSHOT_BYTES.record(frame.remaining());
+        return frame;
+    }
+
+    private void writeRoster(ByteBuffer b, WorldSnapshot snapshot) {
+        var p = snapshot.players;
+        int frame = BinaryProtocol.beginFrame(b, BinaryProtocol.ROSTER);
+        b.putInt(p.count);
+        for (int i = 0; i < p.count; i++) {
+            byte[] name = snapshot.playerNames[i].getBytes(StandardCharsets.UTF_8);
+            BinaryProtocol.putVarInt(b, p.id[i]);
+            BinaryProtocol.putVarInt(b, name.length);
+            b.put(name);
+        }
+        BinaryProtocol.endFrame(b, frame);
+    }
+
+    private void writeSnapshot(ByteBuffer b, WorldSnapshot snapshot) {
+        int frame = BinaryProtocol.beginFrame(b, BinaryProtocol.SNAPSHOT);
+
+        var p = snapshot.players;
+        b.putInt(p.count);
+        for (int i = 0; i < p.count; i++) {
+            BinaryProtocol.putVarInt(b, p.id[i]);
+            BinaryProtocol.putSignedVarInt(b, p.x[i]);
+            BinaryProtocol.putSignedVarInt(b, p.y[i]);
+        }
+
+        var m = snapshot.missiles;
+        b.putInt(m.count);
+        for (int i = 0; i < m.count; i++) {
+            BinaryProtocol.putVarInt(b, m.owner[i]);
+            BinaryProtocol.putSignedVarInt(b, m.x[i]);
+            BinaryProtocol.putSignedVarInt(b, m.y[i]);
+        }
+
+        var e = snapshot.enemies;
+        b.putInt(e.count);
+        for (int i = 0; i < e.count; i++) {
+            BinaryProtocol.putSignedVarInt(b, e.x[i]);
+            BinaryProtocol.putSignedVarInt(b, e.y[i]);
+        }
+
+        BinaryProtocol.endFrame(b, frame);
+    }
+
+    /**
+     * Updates the gameState String
+     */
+    void updateGameStateString(WorldSnapshot snapshot) {
+        gameState.setLength(0);
+
+        gameState.append("START\n");
+
+        var p = snapshot.players;
+        gameState.append("PLAYERS\n");
+        gameState.append(p.count);
+        gameState.append("\n");
+
+        for (int i = 0; i < p.count; i++) {
+            gameState.append(snapshot.playerNames[i]);
+            gameState.append(" ");
+            gameState.append(p.x[i]);
+            gameState.append(" ");
+            gameState.append(p.y[i]);
+            gameState.append("\n");
+        }
+
+        var m = snapshot.missiles;
+        gameState.append("PLAYER MISSILES\n");
+        for (int i = 0; i < p.count; i++) {
+            gameState.append(snapshot.playerNames[i]);
+            gameState.append(" ");
+
+            int mSize = 0;
+            section.setLength(0);
+            for (int j = 0; j < m.count; j++) {
+                if (m.owner[j] != p.id[i]) continue;
+                section.append(" ");
+                section.append(m.x[j]);
+                section.append(" ");
+                section.append(m.y[j]);
+                mSize++;
+            }
+
+            gameState.append(mSize);
+            gameState.append(section);
+            gameState.append("\n");
+        }
+
+        var e = snapshot.enemies;
+        gameState.append("ENEMIES\n");
+        gameState.append(e.count);
+        gameState.append("\n");
+        for (int i = 0; i < e.count; i++) {
+            gameState.append(e.x[i]);
+            gameState.append(" ");
+            gameState.append(e.y[i]);
+            gameState.append("\n");
+        }
+
+        gameState.append("STOP\n");
+    }
+
+
+    /**
+     * Runs the game, one timeStep per tick.
+     */
+    class Game implements Runnable {
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            timeStep();
+            Metrics.TICK_NANOS.record(System.nanoTime() - start);
+        }
+
+        /**
+         * Updates the game variables,
+         * - collision detection
+         * - moves the objects
+         */
+        void timeStep() {
+            parallelTick = parallelThreshold > 0 && enemies.size() + missiles.size() >= parallelThreshold;
+
+            // players only join and leave here, so the InputLog can say exactly at which tick
+            for (Connection c; (c = joining.poll()) != null; ) {
+                joined.add(c);
+                if (players.contains(c.player)) continue;  // reclaimed, see Room.reclaim
+                players.add(c.player);
+                rosterVersion.incrementAndGet();
+                if (log != null) log.join(tick, c.player.id, c.player.getName());
+            }
+            for (Player p : players) {
+                if (p.hasLeft && !p.leaving) {
+                    p.leaving = true;
+                    if (log != null) log.leave(tick, p.id);
+                }
+            }
+
+            // the only point where players' buttons change
+            for (Player p : players) {
+                int seq = p.inputs.appliedSeq;
+                int buttons = p.buttons();
+                p.setButtons(p.inputs.drain(buttons));
+                if (p.inputs.appliedSeq != seq) p.inputTicks = 0;
+                if (log != null && p.buttons() != buttons) log.input(tick, p.id, p.buttons());
+            }
+
+            for (Player p : players) {
+                if (p.isFiring) {
+                    p.firingCounter = (p.firingCounter + 1) % (p.firingRate + 1);
+                    if (p.firingCounter == p.firingRate) fire(p);
+                }
+            }
+
+            removeOutOfBoundsObjects();
+
+            spawnWave();
+            if (parallelTick) {
+                ParallelRange.forEach(enemies.highWater(), PARALLEL_CHUNK, enemies::moveRange);
+                ParallelRange.forEach(missiles.highWater(), PARALLEL_CHUNK, missiles::moveRange);
+            } else {
+                enemies.moveAll();
+                missiles.moveAll();
+            }
+            for (Player p : players) {
+                p.move();
+                p.inputTicks++;
+            }
+
+            checkCollision();
+            tick++;
+            enemyCount = enemies.size();
+            missileCount = missiles.size();
+
+            // nothing reads the stores outside this thread, senders only see these snapshots
+            if (!clients.isEmpty() || !joined.isEmpty()) {
+                latestSnapshot = WorldSnapshot.capture(tick, rosterVersion.get(), players, missiles, enemies);
+            }
+            // clients that joined this tick get snapshots from now on, the first one has their player
+            for (Connection c : joined) {
+                if (!c.player.hasLeft) clients.add(c);
+                joiningCount.decrementAndGet();
+            }
+            joined.clear();
+
+            if (log != null && tick % InputLog.CHECK_INTERVAL == 0) log.check(tick, stateHash());
+            if (CHECKPOINT_TICKS > 0 && tick % CHECKPOINT_TICKS == 0) {
+                long start = System.nanoTime();
+                latestCheckpoint = checkpoint();
+                Metrics.CHECKPOINT_NANOS.record(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Shoots a missile from the middle of the player's ship.
+         */
+        private void fire(Player p) {
+            int midX = p.x + p.getWidth()/2;
+            missiles.spawn(midX, p.y, 0, Missile.DEFAULT_DY, p.id);
+        }
+
+        /**
+         * Spawns the enemies WAVES has for this tick, above the play-area, and moves on to the next tick of the schedule.
+         * Random spawns get 0 <= x < DEFAULT_WIDTH.
+         */
+        private void spawnWave() {
+            for (int i = WAVES.first(waveTick), end = WAVES.first(waveTick + 1); i < end; i++) {
+                int x = WAVES.x(i);
+                if (x == WaveSchedule.RANDOM_X) x = nextRandom(1000) % Client.DEFAULT_WIDTH;
+                enemies.spawn(x, SPAWN_Y, WAVES.dx(i), WAVES.dy(i), -1);
+            }
+            waveTick = WAVES.next(waveTick);
+        }
+
+        /**
+         * Every enemy is consumed by the first thing that hits it:
+         * the first player (in join order) it touches, otherwise the first missile.
+         */
+        void checkCollision() {
+            enemyGrid.build(enemies);
+
+            // Player and Enemy
+            for (Player p: players) {
+                int e;
+                while ((e = enemyGrid.firstHit(p.x, p.y, p.getWidth(), p.getHeight())) >= 0) {
+                    // remove enemy and decrease player hp
+                    p.health--;
+                    enemies.kill(e);
+                }
+            }
+
+            // check if player hp is positive, and drop players that have left
+            for (Player p : players) {
+                if (!p.isAlive() || p.leaving) {
+                    players.remove(p);
+                    missiles.killOwnedBy(p.id);
+                    rosterVersion.incrementAndGet();
+                }
+            }
+
+            // Enemy and Missile
+            int mw = missiles.type.width;
+            int mh = missiles.type.height;
+            if (parallelTick) {
+                // every missile finds its first hit in parallel, ignoring this loop's kills. In slot order, a candidate
+                // that is still alive is exactly what the sequential loop would find, otherwise the query is redone.
+                int[] hits = slotResults(missiles.highWater());
+                ParallelRange.forEach(missiles.highWater(), PARALLEL_CHUNK, (from, to) -> {
+                    for (int m = from; m < to; m++) {
+                        hits[m] = missiles.isAlive(m) ? enemyGrid.firstHit(missiles.x[m], missiles.y[m], mw, mh) : -1;
+                    }
+                });
+                for (int m = missiles.next(0); m >= 0; m = missiles.next(m + 1)) {
+                    int e = hits[m];
+                    if (e >= 0 && !enemies.isAlive(e)) e = enemyGrid.firstHit(missiles.x[m], missiles.y[m], mw, mh);
+                    if (e >= 0) {
+                        enemies.kill(e);
+                        missiles.kill(m);
+                    }
+                }
+                return;
+            }
+            for (int m = missiles.next(0); m >= 0; m = missiles.next(m + 1)) {
+                int e = enemyGrid.firstHit(missiles.x[m], missiles.y[m], mw, mh);
+                if (e >= 0) {
+                    enemies.kill(e);
+                    missiles.kill(m);
+                }
+            }
+        }
+
+        /**
+         * Removes enemies and missiles that have left the play-area
+         */
+        void removeOutOfBoundsObjects() {
+            int yBuffer = OUT_OF_BOUNDS_BUFFER; // todo adjust?
+            if (parallelTick) {
+                cullParallel(enemies, Integer.MIN_VALUE, Client.DEFAULT_HEIGHT + yBuffer);
+                cullParallel(missiles, -yBuffer, Integer.MAX_VALUE);
+                return;
+            }
+            for (int i = enemies.next(0); i >= 0; i = enemies.next(i + 1)) {
+                if (enemies.y[i] > Client.DEFAULT_HEIGHT + yBuffer) enemies.kill(i);
+            }
+            for (int i = missiles.next(0); i >= 0; i = missiles.next(i + 1)) {
+                if (missiles.y[i] < -yBuffer) missiles.kill(i);
+            }
+        }
+
+        /**
+         * Kills every entity with y outside [minY, maxY]. The checks run in parallel, the kills in slot order
+         * so the free-list, and with it every later spawn, is the same as in the sequential loop.
+         */
+        private void cullParallel(EntityStore store, int minY, int maxY) {
+            int[] out = slotResults(store.highWater());
+            ParallelRange.forEach(store.highWater(), PARALLEL_CHUNK, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = store.y[i] < minY || store.y[i] > maxY ? 1 : 0;
+                }
+            });
+            for (int i = store.next(0); i >= 0; i = store.next(i + 1)) {
+                if (out[i] != 0) store.kill(i);
+            }
+        }
+
+        private int[] slotResults(int n) {
+            if (slotResults.length < n) slotResults = new int[Math.max(n, slotResults.length * 2)];
+            return slotResults;
+        }
+    }
+
+}
@@ -1,15 +1,30 @@
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
 
 /**
- * 3 Main Threads:
- *  1 thread for the game.
- *  1 thread for sending data.
+ * The lobby: accepts clients and puts each one in a Room. Every room is an independent match.
+ *
+ * Threads:
+ *  a worker pool, one thread per core, that runs the game and the sending for every room.
  *  1 thread for each client (receiving data).
+ *    or, with -Dnewgame.transport=nio, 1 selector thread for every client (see NioTransport).
+ *    or, with -Dnewgame.transport=virtual (Java 21+), 1 virtual thread for each client plus 1 for writing to it.
+ *  1 thread for the UDP socket, if it could be opened (receiving the inputs of clients that use UDP).
+ *
+ * With -Dnewgame.checkpoint=[file] the rooms are checkpointed to the file (see Checkpoint), and a restarted server
+ * restores them: a returning client with the same name gets its player back, where it was.
  *
  * note: these threads may spawn more threads
  *
@@ -17,343 +32,391 @@ import java.util.concurrent.Executors;
 class Server {
 
     // todo FEATRUES:
-    // game lobby
     // player hp
-    // increasing spawn rate
     // level system
     // hp bar
     // shooting chargeup
     // hit effect
 
     private static boolean acceptingConnections = true;
-    private static boolean gameRunning = true;
-
-    private StringBuilder gameState = new StringBuilder();  // the state of each object in the game is encoded in one long string.
 
-    private static final int SEND_DELAY = 10;
-    private static final int GAME_DELAY = 15;
+    private static final int PORT = 6969;
+    private static final String TRANSPORT = System.getProperty("newgame.transport", "threads");
+    private static final int ROOM_CAPACITY = Integer.getInteger("newgame.roomCapacity", 8);  // players per room, unless they ask for a room by name
 
-    private int enemyGenerationRate = 100;  // number of frames before a new enemy is generated.
-    private int enemyGenerationCounter = 0;  // the current frame
+    private static final ScheduledExecutorService workers =
+            Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+    private static final LinkedHashMap<String, Room> rooms = new LinkedHashMap<>();  // guarded by itself
+    private static int nextRoomNumber = 1;
 
-    private static CopyOnWriteArraySet<BufferedWriter> clients = new CopyOnWriteArraySet<>();
-    private static CopyOnWriteArrayList<Player> players = new CopyOnWriteArrayList<>();
-    private static CopyOnWriteArrayList<Enemy> enemies = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger nextPlayerId = new AtomicInteger();
+    private static DatagramTransport datagrams;  // null if the UDP port couldn't be opened, UDP clients then get TCP only
+    private static Checkpoint checkpoint;  // null unless checkpointing
+    private static final int RETURN_TIMEOUT = 30;  // seconds the players of a restored room wait for their clients
 
     public static void main(String[] args) throws IOException {
-        new Server();
-        var pool = Executors.newFixedThreadPool(5);
-        try (var listener = new ServerSocket(6969)) {
+        // the server model has no images, so never start the AWT toolkit
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        // before any thread is started, so the server exits if the runtime can't do it
+        ExecutorService virtualThreads = TRANSPORT.equals("virtual") ? newVirtualThreadExecutor() : null;
+        System.out.println("Server has started");
+        System.out.println("Waves: " + Room.WAVES);  // also fails here, not at the first join, if the waves can't be read
+
+        Metrics.gauge("clients", () -> sumOverRooms(Room::clientCount));
+        Metrics.gauge("rooms", () -> sumOverRooms(r -> 1));
+        Metrics.gauge("players", () -> sumOverRooms(Room::playerCount));
+        Metrics.gauge("enemies", () -> sumOverRooms(r -> r.enemyCount));
+        Metrics.gauge("missiles", () -> sumOverRooms(r -> r.missileCount));
+        Metrics.start(workers);
+
+        if (Checkpoint.FILE != null) {
+            checkpoint = new Checkpoint(Paths.get(Checkpoint.FILE));
+            restore();
+            workers.scheduleWithFixedDelay(Server::writeCheckpoint, Checkpoint.PERIOD, Checkpoint.PERIOD, TimeUnit.MILLISECONDS);
+        }
+
+        // UDP on the same port number, for clients that ask for it in the handshake
+        try {
+            datagrams = new DatagramTransport(PORT);
+            var t = new Thread(datagrams, "datagrams");
+            t.setDaemon(true);
+            t.start();
+        } catch (IOException e) {
+            System.out.println("UDP port " + PORT + " is not available, every client gets TCP only: " + e);
+        }
+
+        // -Dnewgame.transport=nio for the non-blocking transport
+        if (TRANSPORT.equals("nio")) {
+            new NioTransport(PORT).run();
+            return;
+        }
+
+        // -Dnewgame.transport=virtual for a thread per Handler and per client writer, with no player cap
+        boolean virtual = virtualThreads != null;
+        var pool = virtual ? virtualThreads : Executors.newFixedThreadPool(5);
+        try (var listener = new ServerSocket(PORT)) {
             while (acceptingConnections) {
-                pool.execute(new Handler(listener.accept()));
+                pool.execute(new Handler(listener.accept(), virtual ? pool : null));
             }
         }
     }
 
-    // Starts the DataSender and Game threads.
-    private Server() {
-        var ds = new Thread(new DataSender());
-        var game = new Thread(new Game());
-        ds.start();
-        game.start();
-        System.out.println("Server has started");
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), looked up by reflection since it needs Java 21.
+     * Older runtimes can't run this transport: two platform threads per client is a different server altogether.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("-Dnewgame.transport=virtual needs Java 21 or newer, this is Java "
+                    + Runtime.version().feature() + ". Use -Dnewgame.transport=threads or nio instead.", e);
+        }
     }
 
 
     /**
-     * Receives data from the client.
+     * Receives data from the client over a blocking socket.
      * 1 Handler per Client.
+     *
+     * If it is given an executor for writers, the client also gets its own writer thread (see QueuedStreamConnection),
+     * and a client that goes quiet for READ_TIMEOUT is dropped, so no thread stays stuck on a dead peer.
+     * UDP clients send their lines as datagrams and nothing on TCP, so they only leave when the socket closes.
      */
     static class Handler implements Runnable {
+        private static final int READ_TIMEOUT = 10_000;  // milliseconds, the client sends every 15 (compact input: every 1000)
+
         Socket socket;
-        String name;
-        BufferedWriter out;
+        Connection connection;
         BufferedReader in;
-        Player player;
+        Executor writers;
 
-        Handler(Socket socket) {
+        Handler(Socket socket, Executor writers) {
             this.socket = socket;
+            this.writers = writers;
         }
 
         @Override
         public void run() {
             try {
+                if (writers != null) {
+                    socket.setSoTimeout(READ_TIMEOUT);
+                    socket.setTcpNoDelay(true);
+                }
                 in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-
-
-                /*
-                Ask for the name,
-                add the writer to the set of clients,
-                then add a new player with the name
-                 */
-                this.name = in.readLine();
-                System.out.println(name + " has joined the server.");
-                clients.add(out);
 
-                player = new Player(Client.PLAYER_START_X, Client.PLAYER_START_Y);
-                player.setName(name);
-                players.add(player);
+                // Ask for the name (and protocol options)
+                String hello = in.readLine();
+                if (hello == null) return;
+                var handshake = Handshake.parse(hello);
+                if (handshake.udp) socket.setSoTimeout(0);
+                connection = writers == null ? new StreamConnection(socket, handshake)
+                        : new QueuedStreamConnection(socket, handshake, writers);
+                join(connection);
 
                 String line;
                 while ((line = in.readLine()) != null) {
-                    processData(line);
+                    processData(connection, line);
                     // todo Client sends a gameOver flag. Remove the client from the list.
                 }
             } catch (IOException e) {
                 System.out.println("Socket disconnected.");
             } finally {
-                System.out.println(name + " has left the server.");
-                clients.remove(out);
-                players.remove(player);
+                if (connection != null) {
+                    leave(connection);
+                    connection.close();
+                }
             }
         }
+    }
 
-        /**
-         * Parses playerActions, and modifies player movement based on retrieved data.
-         *
-         * playerActions = a string of booleans that corresponds to player movement
-         * PLAYER ACTIONS FORMAT: [movingUp] [movingDown] [movingLeft] [movingRight] [isFiring]
-         *
-         * @param data String sent by the Client.
-         */
-        private void processData(String data) {
-            if (data.equals("DISCONNECT")) {
-                clients.remove(player);
-            }
-            else {
-                var args = data.split(" ");
-                boolean up = Boolean.valueOf(args[0]);
-                boolean down = Boolean.valueOf(args[1]);
-                boolean left = Boolean.valueOf(args[2]);
-                boolean right = Boolean.valueOf(args[3]);
-                boolean fire = Boolean.valueOf(args[4]);
-
-                player.isMovingDown = down;
-                player.isMovingUp = up;
-                player.isMovingRight = right;
-                player.isMovingLeft = left;
-                player.isFiring = fire;
-
+    /**
+     * Brings back the rooms of the file's last checkpoint. They start when their first client is back.
+     */
+    private static void restore() {
+        long start = System.nanoTime();
+        var payload = checkpoint.latest();
+        if (payload == null) return;
+        int players = 0;
+        synchronized (rooms) {
+            try {
+                nextPlayerId.set(payload.getInt());
+                int count = payload.getInt();
+                for (int i = 0; i < count; i++) {
+                    int length = payload.getInt();
+                    var room = Room.restore(payload.slice().limit(length));
+                    payload.position(payload.position() + length);
+                    rooms.put(room.name, room);
+                    players += room.clientCount();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Can't restore the checkpoint in " + Checkpoint.FILE + ": " + e);
+                rooms.clear();
+                return;
             }
         }
+        System.out.printf("Restored %d rooms and %d players from %s in %.1f ms.%n",
+                rooms.size(), players, Checkpoint.FILE, (System.nanoTime() - start) / 1e6);
+        workers.schedule(Server::expireReturning, RETURN_TIMEOUT, TimeUnit.SECONDS);
     }
 
     /**
-     * Send the current game state to each of the clients every X milliseconds.
-     *
-     * GAME STATE FORMAT (full ver.)
-     * note:
-     *  > the arguments in each line are separated with spaces
-     *  > no extra newlines (\n)
-     * ------------------------------------------------------------------------------------------------------------
-     *
-     * START
-     *
-     * PLAYERS
-     * [N = number of players]
-     * [player1_Name] [player1_X] [player1_Y]
-     * ...
-     * [playerN_Name] [playerN_X] [playerN_Y]
-     *
-     * PLAYER_MISSILES
-     * [player1_Name] [K = number of missiles] [missile1_X] [missile1_Y] ... [missileK_X] [missileK_Y]
-     * [player2_Name] [K = number of missiles] [missile1_X] [missile1_Y] ... [missileK_X] [missileK_Y]
-     *  ...
-     * [playerN_Name] [K = number of missiles] [missile1_X] [missile1_Y] ... [missileK_X] [missileK_Y]
-     *
-     * ENEMIES
-     * [N = number of enemies]
-     * [enemy1_X] [enemy1_Y]
-     * ...
-     * [enemyN_X] [enemyN_Y]
-     *
-     * STOP
-     * ------------------------------------------------------------------------------------------------------------
-     *
-     * todo enemy missiles? Special enemies?
+     * Drops the restored players whose clients haven't come back, and the restored rooms nobody came back to.
      */
-    class DataSender implements Runnable {
-        @Override
-        public void run() {
-            while (gameRunning) {
-                try {
-                    Thread.sleep(SEND_DELAY);
-                    updateGameStateString();
-                    for (BufferedWriter w : clients) {
-                        w.write(gameState.toString());
-                        w.flush();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+    private static void expireReturning() {
+        synchronized (rooms) {
+            for (var it = rooms.values().iterator(); it.hasNext(); ) {
+                var room = it.next();
+                int expired = room.expireReturning();
+                if (expired > 0) System.out.println(expired + " players did not come back to room " + room.name + ".");
+                if (room.clientCount() == 0) {
+                    it.remove();
+                    room.stop();
+                    System.out.println("Room " + room.name + " has closed.");
                 }
             }
         }
     }
 
     /**
-     * Updates the gameState String
+     * Writes the latest checkpoint of every room to the file. Runs on the worker pool, every Checkpoint.PERIOD.
      */
-    private void updateGameStateString() {
-        gameState = new StringBuilder();
-
-        gameState.append("START\n");
-
-        gameState.append("PLAYERS\n");
-        gameState.append(players.size());
-        gameState.append("\n");
-
-        for (Player p: players) {
-            gameState.append(p.getName());
-            gameState.append(" ");
-            gameState.append(p.getX());
-            gameState.append(" ");
-            gameState.append(p.getY());
-            gameState.append("\n");
-        }
-
-        gameState.append("PLAYER MISSILES\n");
-        for (Player p: players) {
-            var missiles = p.missiles;
-            gameState.append(p.getName());
-            gameState.append(" ");
-
-            int mSize = missiles.size();
-
-            gameState.append(mSize);
-
-            if (mSize > 0) {
-                gameState.append(" ");
-                for (int i = 0; i < mSize - 1; i++) {
-                    Missile m = missiles.get(i);
-                    gameState.append(m.getX());
-                    gameState.append(" ");
-                    gameState.append(m.getY());
-                    gameState.append(" ");
+    private static void writeCheckpoint() {
+        try {
+            var states = new ArrayList<ByteBuffer>();
+            synchronized (rooms) {
+                for (Room r : rooms.values()) {
+                    var state = r.latestCheckpoint;
+                    if (state != null) states.add(state);
                 }
-
-                Missile m = missiles.get(mSize - 1);
-                gameState.append(m.getX());
-                gameState.append(" ");
-                gameState.append(m.getY());
             }
-
-            gameState.append("\n");
+            int size = 8;
+            for (ByteBuffer state : states) {
+                size += 4 + state.remaining();
+            }
+            var payload = ByteBuffer.allocate(size);
+            payload.putInt(nextPlayerId.get());
+            payload.putInt(states.size());
+            for (ByteBuffer state : states) {
+                payload.putInt(state.remaining());
+                payload.put(state.duplicate());
+            }
+            checkpoint.write(payload.flip());
+        } catch (Exception e) {
+            e.printStackTrace();
         }
+    }
 
-        gameState.append("ENEMIES\n");
-        gameState.append(enemies.size());
-        gameState.append("\n");
-        for (Enemy e : enemies) {
-            gameState.append(e.getX());
-            gameState.append(" ");
-            gameState.append(e.getY());
-            gameState.append("\n");
+    private static long sumOverRooms(ToIntFunction<Room> value) {
+        long sum = 0;
+        synchronized (rooms) {
+            for (Room r : rooms.values()) {
+                sum += value.applyAsInt(r);
+            }
         }
-
-        gameState.append("STOP\n");
+        return sum;
     }
 
-
     /**
-     * Runs the game
+     * Adds a new player with the client's name,
+     * then puts the client in the room it asked for, or the first one with space.
+     *
+     * After a restart, a client with the name of a restored player that is still waiting for its client
+     * gets that player back instead, in its room.
      */
-    class Game implements Runnable {
-        @Override
-        public void run() {
-            // GAME LOOP:
-            while (gameRunning) {
-                try {
-                    Thread.sleep(GAME_DELAY);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+    static void join(Connection c) throws IOException {
+        String name = c.handshake.name;
+
+        Player player = null;
+        Room returningTo = null;
+        synchronized (rooms) {
+            for (Room r : rooms.values()) {
+                if ((c.handshake.room == null || c.handshake.room.equals(r.name)) && (player = r.reclaim(name)) != null) {
+                    returningTo = r;
+                    break;
                 }
-                timeStep();
             }
         }
+        if (player == null) {
+            player = new Player(Client.PLAYER_START_X, Client.PLAYER_START_Y);
+            player.setName(name);
+            player.id = nextPlayerId.getAndIncrement();
+        }
+        c.player = player;
+        registerMetrics(c);
+        if (c.handshake.udp && datagrams != null) datagrams.register(c);
+
+        if (c.handshake.binary) {
+            var welcome = ByteBuffer.allocate(32);
+            int frame = BinaryProtocol.beginFrame(welcome, BinaryProtocol.WELCOME);
+            BinaryProtocol.putVarInt(welcome, player.id);
+            BinaryProtocol.putVarInt(welcome, (int) (Room.TICK_NANOS / 1000));
+            if (c.datagrams != null) welcome.putLong(c.datagrams.token);
+            BinaryProtocol.endFrame(welcome, frame);
+            c.send(BinaryProtocol.share(welcome), true);
+        }
 
-        /**
-         * Updates the game variables,
-         * - collision detection
-         * - moves the objects
-         */
-        private void timeStep() {
-
-            for (Player p : players) {
-                if (p.isFiring) {
-                    p.firingCounter = (p.firingCounter + 1) % (p.firingRate + 1);
-                    if (p.firingCounter == p.firingRate) p.fire();
+        synchronized (rooms) {
+            // the room may have closed since the player was reclaimed, the player then goes elsewhere like a new one
+            Room room = returningTo != null && rooms.get(returningTo.name) == returningTo ? returningTo : null;
+            if (room != null) {
+                // back where it was
+            } else if (c.handshake.room != null) {
+                room = rooms.get(c.handshake.room);
+            } else {
+                for (Room r : rooms.values()) {
+                    if (r.clientCount() < ROOM_CAPACITY) {
+                        room = r;
+                        break;
+                    }
                 }
             }
 
-            removeOutOfBoundsObjects();
-
-            enemyGenerationCounter = (enemyGenerationCounter + 1) % (enemyGenerationRate + 1);
-            if (enemyGenerationCounter == enemyGenerationRate) generateEnemy();
-            for (Enemy e : enemies) {
-                e.move();
-            }
-            for (Player p : players) {
-                p.move();
-                for (Missile m : p.missiles) {
-                    m.move();
+            if (room == null) {
+                String roomName = c.handshake.room;
+                while (roomName == null || rooms.containsKey(roomName)) {
+                    roomName = String.valueOf(nextRoomNumber++);
                 }
+                room = new Room(roomName);
+                rooms.put(roomName, room);
+                room.start(workers);
+                System.out.println("Room " + roomName + " has started.");
             }
 
-            checkCollision();
+            if (!room.isRunning()) {
+                room.start(workers);  // restored, and this is its first client back
+                System.out.println("Room " + room.name + " has resumed at tick " + room.tick() + ".");
+            }
+            c.room = room;
+            room.join(c);
         }
+        System.out.println(name + (c.room == returningTo ? " is back in room " : " has joined room ") + c.room.name + ".");
+    }
 
-        /**
-         * Adds a new enemy to the arrayList.
-         * New Enemy:
-         * 0 < x < DEFAULT_WIDTH
-         * y < 0
-         */
-        private void generateEnemy() {
-            int x = (int) (Math.random() * 1000) % Client.DEFAULT_WIDTH;
-            int y = -100;
-
-            enemies.add(new Enemy(x, y));
+    /**
+     * Removes the client from its room, and closes the room once nobody is left in it.
+     */
+    static void leave(Connection c) {
+        System.out.println(c.handshake.name + " has left the server.");
+        if (c.player != null) unregisterMetrics(c);
+        if (c.datagrams != null) datagrams.unregister(c);
+        if (c.room == null) return;
+        synchronized (rooms) {
+            c.room.leave(c);
+            if (c.room.clientCount() == 0 && rooms.remove(c.room.name, c.room)) {
+                c.room.stop();
+                System.out.println("Room " + c.room.name + " has closed.");
+            }
         }
+    }
 
-        private void checkCollision() {
-            // Player and Enemy
-            for (Enemy e: enemies) {
-                for (Player p: players) {
-                    if (e.getBounds().intersects(p.getBounds())) {
-                        // remove enemy and decrease player hp
-                        p.health--;
-                        enemies.remove(e);
-                    }
-                }
-            }
+    /**
+     * Publishes the client's metrics as MBeans of type Client, named after its player.
+     */
+    private static void registerMetrics(Connection c) {
+        String name = c.player.id + "-" + c.player.getName();
+        Metrics.register("Client", name + ".bytesSent", c.bytesSent);
+        Metrics.register("Client", name + ".writeNanos", c.writeNanos);
+        Metrics.register("Client", name + ".framesSkipped", c.framesSkipped);
+    }
 
-            // check if player hp is positive
-            players.removeIf(p -> !p.isAlive());
-
-            // Enemy and Missile
-            for (Player p : players) {
-                for (Missile m : p.missiles) {
-                    for (Enemy e : enemies) {
-                        if (e.getBounds().intersects(m.getBounds())) {
-                            enemies.remove(e);
-                            p.missiles.remove(m);
-                        }
-                    }
-                }
-            }
-        }
+    private static void unregisterMetrics(Connection c) {
+        String name = c.player.id + "-" + c.player.getName();
+        Metrics.unregister("Client", name + ".bytesSent");
+        Metrics.unregister("Client", name + ".writeNanos");
+        Metrics.unregister("Client", name + ".framesSkipped");
+    }
 
-        /**
-         * Removes enemies and missiles that have left the play-area
-         */
-        private void removeOutOfBoundsObjects() {
-            int yBuffer = 50; // todo adjust?
-            enemies.removeIf(enemy -> enemy.getY() > Client.DEFAULT_HEIGHT + yBuffer);
-            for (Player p : players) {
-                p.missiles.removeIf(m -> m.getY() < -yBuffer);
+    /**
+     * Parses playerActions, and modifies player movement based on retrieved data.
+     *
+     * playerActions = a string of booleans that corresponds to player movement
+     * PLAYER ACTIONS FORMAT: [movingUp] [movingDown] [movingLeft] [movingRight] [isFiring]
+     *
+     * Delta clients also send "ACK [seq]" once they have applied a snapshot.
+     *
+     * COMPACT INPUT FORMAT: I [seq] [buttons]
+     * buttons is the Player.UP/DOWN/LEFT/RIGHT/FIRE bitmask, and seq goes up by one every time it changes.
+     * The client only sends it on change, and repeats the last one as a keepalive. Malformed ones are ignored.
+     *
+     * Either way the input is queued, the game task applies it at the start of its next tick.
+     *
+     * @param data String sent by the Client.
+     */
+    static void processData(Connection c, String data) {
+        Metrics.MESSAGES_IN.increment();
+        Player player = c.player;
+        if (data.equals("DISCONNECT")) {
+            c.room.clients.remove(c);
+        }
+        else if (data.startsWith("I ")) {
+            // a truncated or garbled line is ignored, the next one repeats the buttons anyway
+            int space = data.indexOf(' ', 2);
+            if (space < 0) return;
+            int seq, buttons;
+            try {
+                seq = Integer.parseInt(data, 2, space, 10);
+                buttons = Integer.parseInt(data, space + 1, data.length(), 10);
+            } catch (NumberFormatException e) {
+                return;
             }
+            player.inputs.offer(seq, buttons & 31);
+        }
+        else if (data.startsWith("ACK ")) {
+            c.ackedSeq = Integer.parseInt(data, 4, data.length(), 10);
+        }
+        else {
+            var args = data.split(" ");
+            boolean up = Boolean.valueOf(args[0]);
+            boolean down = Boolean.valueOf(args[1]);
+            boolean left = Boolean.valueOf(args[2]);
+            boolean right = Boolean.valueOf(args[3]);
+            boolean fire = Boolean.valueOf(args[4]);
+
+            player.inputs.offer((up ? Player.UP : 0) | (down ? Player.DOWN : 0) | (left ? Player.LEFT : 0)
+                    | (right ? Player.RIGHT : 0) | (fire ? Player.FIRE : 0));
         }
     }
-
-}
\ No newline at end of file
+}
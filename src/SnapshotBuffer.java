@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/**
+ * The last few snapshots on the client, each with the local time it stands for, so entities can be drawn
+ * between two of them instead of jumping whenever one arrives.
+ *
+ * A snapshot's time is its server tick on the local clock: tick * tickNanos plus the smallest offset seen so far
+ * between arrival and tick, so late packets don't move the timeline. Drawing happens INTERPOLATION_DELAY behind
+ * the newest snapshot, where there are usually two to interpolate between. When packets are late, positions are
+ * extrapolated along the last movement for up to MAX_EXTRAPOLATION, then held.
+ */
+final class SnapshotBuffer {
+    private static final int SIZE = 32;
+    private static final long MAX_EXTRAPOLATION = 100_000_000L;  // nanoseconds
+    private static final long OFFSET_DRIFT = 10_000L;  // the offset may grow this much per snapshot, if the path gets slower
+
+    private final WorldSnapshot[] snapshots = new WorldSnapshot[SIZE];
+    private final long[] times = new long[SIZE];
+    private int count = 0;
+    private int newest = -1;
+    private long offset;
+
+    // the result of the last sample(), EDT only
+    final View players = new View(), missiles = new View(), enemies = new View();
+
+    /**
+     * Adds a snapshot that has just arrived. Snapshots older than the newest one are ignored.
+     */
+    synchronized void add(WorldSnapshot snapshot, long arrivalNanos, long tickNanos) {
+        if (count > 0 && snapshot.tick - snapshots[newest].tick <= 0) return;
+        long tickTime = snapshot.tick * tickNanos;
+        offset = count == 0 ? arrivalNanos - tickTime : Math.min(offset + OFFSET_DRIFT, arrivalNanos - tickTime);
+
+        newest = (newest + 1) % SIZE;
+        snapshots[newest] = snapshot;
+        times[newest] = tickTime;
+        count = Math.min(count + 1, SIZE);
+    }
+
+    /**
+     * Fills players, missiles and enemies with the positions at the given local time.
+     * @return false if there is nothing to draw yet
+     */
+    synchronized boolean sample(long time) {
+        if (count == 0) return false;
+        long t = time - offset;
+
+        // the newest snapshot at or before t, and the one after it
+        int from = -1;
+        for (int i = 0; i < count; i++) {
+            int slot = Math.floorMod(newest - i, SIZE);
+            if (times[slot] <= t) {
+                from = slot;
+                break;
+            }
+        }
+        if (from < 0) {
+            // older than everything we have, show the oldest
+            int oldest = Math.floorMod(newest - count + 1, SIZE);
+            fill(snapshots[oldest], snapshots[oldest], 0);
+            return true;
+        }
+
+        int to;
+        if (from != newest) {
+            to = (from + 1) % SIZE;
+        } else if (count > 1) {
+            // late: extrapolate along the last two snapshots
+            to = from;
+            from = Math.floorMod(newest - 1, SIZE);
+            t = Math.min(t, times[to] + MAX_EXTRAPOLATION);
+        } else {
+            fill(snapshots[from], snapshots[from], 0);
+            return true;
+        }
+
+        double alpha = (double) (t - times[from]) / (times[to] - times[from]);
+        fill(snapshots[from], snapshots[to], alpha);
+        return true;
+    }
+
+    private void fill(WorldSnapshot from, WorldSnapshot to, double alpha) {
+        players.interpolate(from.players, to.players, alpha);
+        missiles.interpolate(from.missiles, to.missiles, alpha);
+        enemies.interpolate(from.enemies, to.enemies, alpha);
+    }
+
+    /**
+     * Interpolated positions of one group, reused from frame to frame.
+     */
+    static final class View {
+        int count;
+        int[] id = new int[64], owner = new int[64], x = new int[64], y = new int[64];
+
+        /**
+         * Every entity of to, moved alpha of the way from its position in from (if it was there) to its position in to.
+         * Both groups are sorted by id, so this is one merge walk.
+         */
+        void interpolate(WorldSnapshot.Group from, WorldSnapshot.Group to, double alpha) {
+            if (id.length < to.count) {
+                int size = Math.max(to.count, id.length * 2);
+                id = Arrays.copyOf(id, size);
+                owner = Arrays.copyOf(owner, size);
+                x = Arrays.copyOf(x, size);
+                y = Arrays.copyOf(y, size);
+            }
+            count = to.count;
+            int j = 0;
+            for (int i = 0; i < to.count; i++) {
+                while (j < from.count && from.id[j] < to.id[i]) j++;
+                id[i] = to.id[i];
+                owner[i] = to.owner[i];
+                if (j < from.count && from.id[j] == to.id[i]) {
+                    x[i] = (int) Math.round(from.x[j] + (to.x[i] - from.x[j]) * alpha);
+                    y[i] = (int) Math.round(from.y[j] + (to.y[i] - from.y[j]) * alpha);
+                } else {
+                    x[i] = to.x[i];
+                    y[i] = to.y[i];
+                }
+            }
+        }
+    }
+}
@@ -1,36 +1,23 @@
-import javax.swing.*;
-import java.awt.*;
-
+/**
+ * A position in the play-area plus a type.
+ * Has no image or AWT dependency, so the server can use it headless; the client looks the texture up in {@link Textures}.
+ */
 public class Sprite {
     int x, y;
-    int width, height;
-    Image image;
+    final SpriteType type;  // the texture and hitbox are shared by every sprite of the same type
 
-    Sprite (int x, int y) {
+    Sprite (int x, int y, SpriteType type) {
         this.x = x;
         this.y = y;
-    }
-
-    void loadImage(String filename) {
-        ImageIcon ii = new ImageIcon(filename);
-        image = ii.getImage();
-    }
-
-    void loadImageDimensions() {
-        width = image.getWidth(null);
-        height = image.getHeight(null);
-    }
-
-    Image getImage() {
-        return image;
+        this.type = type;
     }
 
     int getWidth() {
-        return width;
+        return type.width;
     }
 
     int getHeight() {
-        return height;
+        return type.height;
     }
 
     int getX() {
@@ -41,8 +28,4 @@ public class Sprite {
         return y;
     }
 
-    Rectangle getBounds() {
-        return new Rectangle(x, y, width, height);
-    }
-
 }
@@ -0,0 +1,20 @@
+/**
+ * The kinds of sprites in the game.
+ * Every sprite of a type shares the same texture, so a sprite only needs to know its type.
+ *
+ * The hitbox of each type is a static table (the size of its texture) so the server never has to decode an image.
+ */
+enum SpriteType {
+    PLAYER("player.png", 64, 62),
+    ENEMY("enemy.png", 50, 35),
+    MISSILE("missile.png", 22, 19);
+
+    final String filename;
+    final int width, height;  // hitbox
+
+    SpriteType(String filename, int width, int height) {
+        this.filename = filename;
+        this.width = width;
+        this.height = height;
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A connection over a blocking Socket, written to directly by the sending thread.
+ * Writes are synchronized, so a frame sent by the Handler never interleaves with one from the DataSender.
+ */
+class StreamConnection extends Connection {
+    final Socket socket;
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+
+    StreamConnection(Socket socket, Handshake handshake) throws IOException {
+        this.socket = socket;
+        this.handshake = handshake;
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.channel = Channels.newChannel(out);
+    }
+
+    @Override
+    synchronized boolean send(ByteBuffer frame, boolean flush) throws IOException {
+        long start = System.nanoTime();
+        channel.write(frame.duplicate());
+        if (flush) out.flush();
+        recordWrite(frame.remaining(), System.nanoTime() - start);
+        return true;
+    }
+
+    @Override
+    boolean sendLatestCopies() {
+        return true;
+    }
+
+    @Override
+    InetAddress remoteAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Process-wide texture registry.
+ *
+ * Each texture is decoded once and copied into an image compatible with the screen
+ * (so it can be accelerated), then shared by reference between all sprites of its type.
+ * Client only: the server works with the hitboxes in {@link SpriteType}.
+ */
+final class Textures {
+    private static final Image[] images = new Image[SpriteType.values().length];
+
+    private static volatile boolean loaded = false;
+
+    private Textures() {
+    }
+
+    /**
+     * Loads every texture. Called once at startup, later calls do nothing.
+     */
+    static synchronized void loadAll() {
+        if (loaded) return;
+
+        GraphicsConfiguration gc = null;
+        if (!GraphicsEnvironment.isHeadless()) {
+            gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice()
+                    .getDefaultConfiguration();
+        }
+
+        for (SpriteType type : SpriteType.values()) {
+            int i = type.ordinal();
+            try {
+                BufferedImage decoded = ImageIO.read(new File(type.filename));
+                if (decoded == null) {
+                    throw new IOException("Unsupported image format: " + type.filename);
+                }
+                images[i] = gc == null ? decoded : toCompatibleImage(decoded, gc);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        loaded = true;
+    }
+
+    private static Image toCompatibleImage(BufferedImage src, GraphicsConfiguration gc) {
+        BufferedImage dst = gc.createCompatibleImage(src.getWidth(), src.getHeight(), src.getTransparency());
+        Graphics2D g = dst.createGraphics();
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return dst;
+    }
+
+    static Image get(SpriteType type) {
+        if (!loaded) loadAll();
+        return images[type.ordinal()];
+    }
+}
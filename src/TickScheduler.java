@@ -0,0 +1,79 @@
+/**
+ * Fixed-timestep scheduler driven by System.nanoTime.
+ *
+ * Ticks are due at start + n * period, no matter how long each one takes, so a slow tick makes the next one
+ * start sooner instead of slowing the game down. If it falls more than maxCatchUpTicks behind, the missed ticks
+ * are dropped (and counted) rather than run in a burst.
+ *
+ * A tick that ends after the next one was due is an overrun. While overruns keep happening the scheduler reports
+ * itself as overloaded, so the server can shed other work (like sending snapshots) before the game starts to drift.
+ *
+ * It doesn't own a thread: the caller runs the due ticks and waits nanosUntilNextTick before asking again.
+ */
+final class TickScheduler {
+    private static final int OVERLOAD_SCORE = 10;  // overruns (minus ticks on time) before we are overloaded
+
+    final long periodNanos;
+    private final int maxCatchUpTicks;
+
+    private long nextTickAt;
+    private int overloadScore = 0;
+    private volatile boolean overloaded = false;
+
+    // statistics
+    volatile long ticks = 0;
+    volatile long overruns = 0;
+    volatile long droppedTicks = 0;
+
+    TickScheduler(long periodNanos, int maxCatchUpTicks) {
+        this.periodNanos = periodNanos;
+        this.maxCatchUpTicks = Math.max(1, maxCatchUpTicks);
+    }
+
+    void start(long now) {
+        nextTickAt = now + periodNanos;
+    }
+
+    /**
+     * Runs every tick that is due by now.
+     * @return the number of ticks that ran
+     */
+    int runDueTicks(long now, Runnable tick) {
+        int ran = 0;
+        while (now - nextTickAt >= 0) {
+            if (ran == maxCatchUpTicks) {
+                // too far behind, give up on the ticks we missed
+                long missed = (now - nextTickAt) / periodNanos + 1;
+                droppedTicks += missed;
+                nextTickAt += missed * periodNanos;
+                break;
+            }
+
+            tick.run();
+            ticks++;
+            ran++;
+            nextTickAt += periodNanos;
+
+            now = System.nanoTime();
+            if (now - nextTickAt >= 0) {
+                overruns++;
+                overloadScore = Math.min(overloadScore + 1, 2 * OVERLOAD_SCORE);
+            } else if (overloadScore > 0) {
+                overloadScore--;
+            }
+            overloaded = overloadScore >= OVERLOAD_SCORE;
+        }
+        return ran;
+    }
+
+    long nanosUntilNextTick(long now) {
+        return nextTickAt - now;
+    }
+
+    /**
+     * True while ticks keep overrunning.
+     */
+    boolean isOverloaded() {
+        return overloaded;
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * When, where and how fast enemies spawn, compiled from a wave definition into a per-tick timeline.
+ * Every room plays the same schedule, each with its own position in it (see Room.Game.spawnWave).
+ *
+ * Compiling does all the work: a tick only walks its own slice of the timeline, and the schedule knows the most
+ * enemies it can ever have alive at once (peak), so a room's enemy pools are sized for it up front.
+ *
+ * WAVE DEFINITION FORMAT
+ * one command per line, # starts a comment
+ *
+ * wave [ticks]                 a wave of this many ticks, starting when the previous one ends
+ * spawn [from] [to] [count] [x] [dx] [dy] [ramp]
+ *                              count enemies of the current wave, between its ticks from (included) and to (excluded)
+ *   x:    random               anywhere, from the room's random sequence
+ *         at:[x]               all at x
+ *         line:[x0]:[x1]       spread from x0 to x1, in spawn order
+ *         zigzag:[x0]:[x1]:[n] from x0 to x1 and back, n enemies each way
+ *   dx, dy: velocity (the same as Enemy.setDx/setDy), dy > 0 so every enemy leaves the play-area
+ *   ramp: flat                 evenly spread
+ *         up                   sparse at first, dense at the end
+ *         down                 dense at first, sparse at the end
+ *         burst                all at once, at from
+ * loop [wave]                  after the last wave, go on from this one (counted from 1). Default: the last one.
+ */
+final class WaveSchedule {
+    static final int RANDOM_X = Integer.MIN_VALUE;  // x of a random spawn
+
+    // the trickle the game always had: one enemy every 101 ticks, anywhere
+    private static final String DEFAULT = "wave 101\nspawn 99 100 1 random 0 " + Enemy.DEFAULT_DY + " flat\n";
+
+    private final int length;  // ticks
+    private final int loopStart;  // tick the schedule goes on from after its last one
+    private final int waves;
+    private final int[] first;  // the spawns of tick t are [first[t], first[t + 1])
+    private final int[] x, dx, dy;
+    private final int peak;
+
+    private WaveSchedule(int length, int loopStart, int waves, int[] first, int[] x, int[] dx, int[] dy, int travel) {
+        this.length = length;
+        this.loopStart = loopStart;
+        this.waves = waves;
+        this.first = first;
+        this.x = x;
+        this.dx = dx;
+        this.dy = dy;
+        this.peak = peak(travel);
+    }
+
+    /**
+     * Loads the definition from a file, or the default one if file is null.
+     * @param travel distance an enemy moves down from where it spawns to where it is culled
+     */
+    static WaveSchedule load(String file, int travel) throws IOException {
+        if (file == null) return compile("default", new BufferedReader(new StringReader(DEFAULT)), travel);
+        try (var in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            return compile(file, in, travel);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException for a malformed definition, with the source and line number
+     */
+    static WaveSchedule compile(String source, BufferedReader in, int travel) throws IOException {
+        var waveStarts = new ArrayList<Integer>();
+        var spawns = new ArrayList<int[]>();  // {tick, x, dx, dy}
+        int length = 0, loop = -1;
+
+        String line;
+        for (int number = 1; (line = in.readLine()) != null; number++) {
+            int comment = line.indexOf('#');
+            var args = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+            try {
+                switch (args[0]) {
+                    case "":
+                        break;
+                    case "wave":
+                        expect(args, 2);
+                        int ticks = positive(args[1]);
+                        waveStarts.add(length);
+                        length += ticks;
+                        break;
+                    case "spawn":
+                        expect(args, 8);
+                        if (waveStarts.isEmpty()) throw new IllegalArgumentException("spawn before the first wave");
+                        int start = waveStarts.get(waveStarts.size() - 1);
+                        int from = Integer.parseInt(args[1]), to = Integer.parseInt(args[2]);
+                        if (from < 0 || to <= from || start + to > length) {
+                            throw new IllegalArgumentException("ticks " + from + " to " + to + " are not in the wave");
+                        }
+                        int count = Integer.parseInt(args[3]);
+                        if (count < 0) throw new IllegalArgumentException("negative count");
+                        int vx = Integer.parseInt(args[5]);
+                        int vy = positive(args[6]);
+                        for (int i = 0; i < count; i++) {
+                            int tick = start + from + (int) ((to - from) * ramp(args[7], (double) i / count));
+                            spawns.add(new int[]{tick, pattern(args[4], i, count), vx, vy});
+                        }
+                        break;
+                    case "loop":
+                        expect(args, 2);
+                        loop = positive(args[1]) - 1;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown command " + args[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(source + ":" + number + ": " + e.getMessage(), e);
+            }
+        }
+        if (waveStarts.isEmpty()) throw new IllegalArgumentException(source + ": no waves");
+        if (loop >= waveStarts.size()) throw new IllegalArgumentException(source + ": loop to wave " + (loop + 1) + " of " + waveStarts.size());
+        int loopStart = waveStarts.get(loop < 0 ? waveStarts.size() - 1 : loop);
+
+        // counting sort by tick, a wave's spawn lines can come in any order
+        int n = spawns.size();
+        var first = new int[length + 1];
+        for (int[] s : spawns) {
+            first[s[0] + 1]++;
+        }
+        for (int t = 0; t < length; t++) {
+            first[t + 1] += first[t];
+        }
+        var cursor = Arrays.copyOf(first, length);
+        int[] x = new int[n], dx = new int[n], dy = new int[n];
+        for (int[] s : spawns) {
+            int i = cursor[s[0]]++;
+            x[i] = s[1];
+            dx[i] = s[2];
+            dy[i] = s[3];
+        }
+        return new WaveSchedule(length, loopStart, waveStarts.size(), first, x, dx, dy, travel);
+    }
+
+    /**
+     * Where the i-th spawn of q = i / count is in [0, 1) of its ticks.
+     */
+    private static double ramp(String ramp, double q) {
+        switch (ramp) {
+            case "flat":
+                return q;
+            case "up":
+                return Math.sqrt(q);
+            case "down":
+                return 1 - Math.sqrt(1 - q);
+            case "burst":
+                return 0;
+            default:
+                throw new IllegalArgumentException("unknown ramp " + ramp);
+        }
+    }
+
+    private static int pattern(String pattern, int i, int count) {
+        var p = pattern.split(":");
+        switch (p[0]) {
+            case "random":
+                expect(p, 1);
+                return RANDOM_X;
+            case "at":
+                expect(p, 2);
+                return Integer.parseInt(p[1]);
+            case "line": {
+                expect(p, 3);
+                int x0 = Integer.parseInt(p[1]), x1 = Integer.parseInt(p[2]);
+                return x0 + (x1 - x0) * i / Math.max(1, count - 1);
+            }
+            case "zigzag": {
+                expect(p, 4);
+                int x0 = Integer.parseInt(p[1]), x1 = Integer.parseInt(p[2]), each = positive(p[3]);
+                int k = i % (2 * each);
+                return x0 + (x1 - x0) * (k <= each ? k : 2 * each - k) / each;
+            }
+            default:
+                throw new IllegalArgumentException("unknown x pattern " + pattern);
+        }
+    }
+
+    private static void expect(String[] args, int count) {
+        if (args.length != count) throw new IllegalArgumentException(String.join(" ", args) + ": expected " + (count - 1) + " arguments");
+    }
+
+    private static int positive(String s) {
+        int v = Integer.parseInt(s);
+        if (v <= 0) throw new IllegalArgumentException(s + " is not positive");
+        return v;
+    }
+
+    /**
+     * The most enemies alive at once if none were ever shot down, each living until it has moved travel down.
+     * Walks the schedule through its loop until the loop's own spawns overlap themselves.
+     */
+    private int peak(int travel) {
+        int maxLife = 0;
+        for (int i = 0; i < dy.length; i++) {
+            maxLife = Math.max(maxLife, life(i, travel));
+        }
+        int steps = length + 2 * maxLife + (length - loopStart);
+        var change = new int[steps + maxLife + 1];
+        for (int s = 0, t = 0; s < steps; s++, t = next(t)) {
+            for (int i = first[t]; i < first[t + 1]; i++) {
+                change[s]++;
+                change[s + life(i, travel)]--;
+            }
+        }
+        int alive = 0, peak = 0;
+        for (int c : change) {
+            alive += c;
+            peak = Math.max(peak, alive);
+        }
+        return peak;
+    }
+
+    /**
+     * Ticks spawn i stays in the play-area, rounded up, plus one for the tick it is culled in.
+     */
+    private int life(int i, int travel) {
+        return (travel + dy[i]) / dy[i] + 1;
+    }
+
+    /**
+     * The tick after t.
+     */
+    int next(int t) {
+        return t + 1 < length ? t + 1 : loopStart;
+    }
+
+    /**
+     * First spawn of tick t: spawns [first(t), first(t + 1)) are due at t.
+     */
+    int first(int t) {
+        return first[t];
+    }
+
+    /**
+     * x of spawn i, or RANDOM_X.
+     */
+    int x(int i) {
+        return x[i];
+    }
+
+    int dx(int i) {
+        return dx[i];
+    }
+
+    int dy(int i) {
+        return dy[i];
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * The most enemies a room playing this schedule can have alive at once.
+     */
+    int peak() {
+        return peak;
+    }
+
+    @Override
+    public String toString() {
+        return waves + " waves, " + length + " ticks, " + x.length + " enemies, at most " + peak + " at once";
+    }
+}
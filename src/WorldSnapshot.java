@@ -0,0 +1,278 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A copy of the game state at the end of one tick.
+ *
+ * The game thread takes one after every tick and publishes it, and never changes it afterwards,
+ * so the senders can encode it without seeing a half-updated world. It is also the baseline for delta compression:
+ * each group (players, missiles, enemies) is sorted by entity id, so two snapshots can be compared
+ * with a single merge walk. The server keeps a short history of these, and so does the client.
+ */
+final class WorldSnapshot {
+    final int seq;  // numbers the snapshots, the same as tick on the server
+    final int tick;  // the game tick it was taken at
+    final int rosterVersion;  // server only, -1 on the client
+    final Group players, missiles, enemies;
+    final String[] playerNames;  // same order as players, server only
+    final int[] inputSeqs, inputTicks;  // same order as players, server only: Player.inputs.appliedSeq and inputTicks
+
+    WorldSnapshot(int seq, int tick, Group players, Group missiles, Group enemies) {
+        this(seq, tick, -1, players, null, null, null, missiles, enemies);
+    }
+
+    private WorldSnapshot(int seq, int tick, int rosterVersion, Group players, String[] playerNames,
+                          int[] inputSeqs, int[] inputTicks, Group missiles, Group enemies) {
+        this.seq = seq;
+        this.tick = tick;
+        this.rosterVersion = rosterVersion;
+        this.players = players;
+        this.playerNames = playerNames;
+        this.inputSeqs = inputSeqs;
+        this.inputTicks = inputTicks;
+        this.missiles = missiles;
+        this.enemies = enemies;
+    }
+
+    /**
+     * Copies the game state. Game thread only.
+     * @param rosterVersion read before the players are copied, so the names are never older than the version says
+     */
+    static WorldSnapshot capture(int tick, int rosterVersion, List<Player> players, EntityStore missiles, EntityStore enemies) {
+        var sorted = players.toArray(new Player[0]);
+        Arrays.sort(sorted, BY_ID);
+
+        var group = new Group(sorted.length);
+        var names = new String[sorted.length];
+        var inputSeqs = new int[sorted.length];
+        var inputTicks = new int[sorted.length];
+        for (Player p : sorted) {
+            names[group.count] = p.getName();
+            inputSeqs[group.count] = p.inputs.appliedSeq;
+            inputTicks[group.count] = p.inputTicks;
+            group.add(p.id, -1, p.getX(), p.getY(), 0, 0);
+        }
+        return new WorldSnapshot(tick, tick, rosterVersion, group, names, inputSeqs, inputTicks,
+                Group.capture(missiles), Group.capture(enemies));
+    }
+
+    private static final Comparator<Player> BY_ID = Comparator.comparingInt(p -> p.id);
+
+    /**
+     * Writes a DELTA frame, see BinaryProtocol for the format.
+     * @param baseline the snapshot the client has acknowledged, or null to send everything
+     */
+    void writeDelta(ByteBuffer b, WorldSnapshot baseline) {
+        int frame = BinaryProtocol.beginFrame(b, BinaryProtocol.DELTA);
+        b.putInt(seq);
+        b.putInt(tick);
+        b.putInt(baseline == null ? -1 : baseline.seq);
+        int ticks = baseline == null ? 0 : tick - baseline.tick;
+        players.writeDelta(b, baseline == null ? Group.EMPTY : baseline.players, ticks);
+        missiles.writeDelta(b, baseline == null ? Group.EMPTY : baseline.missiles, ticks);
+        enemies.writeDelta(b, baseline == null ? Group.EMPTY : baseline.enemies, ticks);
+        BinaryProtocol.endFrame(b, frame);
+    }
+
+    /**
+     * Rebuilds the snapshot a DELTA frame describes. The frame type has already been read.
+     * @param baseline the snapshot the frame refers to, null if it refers to none
+     */
+    static WorldSnapshot readDelta(ByteBuffer b, WorldSnapshot baseline) {
+        int seq = b.getInt();
+        int tick = b.getInt();
+        b.getInt();  // baseline seq, already looked up by the caller
+        int ticks = baseline == null ? 0 : tick - baseline.tick;
+        var players = Group.readDelta(b, baseline == null ? Group.EMPTY : baseline.players, ticks);
+        var missiles = Group.readDelta(b, baseline == null ? Group.EMPTY : baseline.missiles, ticks);
+        var enemies = Group.readDelta(b, baseline == null ? Group.EMPTY : baseline.enemies, ticks);
+        return new WorldSnapshot(seq, tick, players, missiles, enemies);
+    }
+
+    /**
+     * Entities of one kind, as parallel arrays sorted by id.
+     * Players use their player id and have no owner or velocity.
+     */
+    static final class Group {
+        static final Group EMPTY = new Group(0);
+
+        int count;
+        final int[] id, owner, x, y, dx, dy;
+
+        Group(int capacity) {
+            id = new int[capacity];
+            owner = new int[capacity];
+            x = new int[capacity];
+            y = new int[capacity];
+            dx = new int[capacity];
+            dy = new int[capacity];
+        }
+
+        static Group capture(EntityStore s) {
+            var g = new Group(s.size());
+            for (int i = s.next(0); i >= 0; i = s.next(i + 1)) {
+                g.add(s.id[i], s.owner[i], s.x[i], s.y[i], s.dx[i], s.dy[i]);
+            }
+            g.sortById();
+            return g;
+        }
+
+        void add(int id, int owner, int x, int y, int dx, int dy) {
+            int i = count++;
+            this.id[i] = id;
+            this.owner[i] = owner;
+            this.x[i] = x;
+            this.y[i] = y;
+            this.dx[i] = dx;
+            this.dy[i] = dy;
+        }
+
+        /**
+         * Where the i-th entity would be after the given number of ticks, if nothing but its velocity moved it.
+         */
+        private int predictX(int i, int ticks) {
+            return x[i] + dx[i] * ticks;
+        }
+
+        private int predictY(int i, int ticks) {
+            return y[i] + dy[i] * ticks;
+        }
+
+        /**
+         * GROUP DELTA FORMAT
+         * [S: int32] ([id] [owner + 1] [x] [y] [dx] [dy]) * S     spawned since the baseline
+         * [D: int32] ([id]) * D                                  despawned since the baseline
+         * [C: int32] ([id] [x] [y] [dx] [dy]) * C                 not where the baseline's velocity puts them
+         *
+         * Every list is in ascending id order.
+         */
+        void writeDelta(ByteBuffer b, Group base, int ticks) {
+            // spawns
+            int count = b.position();
+            b.putInt(0);
+            int n = 0;
+            for (int i = 0, j = 0; j < this.count; j++) {
+                while (i < base.count && base.id[i] < id[j]) i++;
+                if (i < base.count && base.id[i] == id[j]) continue;
+                BinaryProtocol.putVarInt(b, id[j]);
+                BinaryProtocol.putVarInt(b, owner[j] + 1);
+                BinaryProtocol.putSignedVarInt(b, x[j]);
+                BinaryProtocol.putSignedVarInt(b, y[j]);
+                BinaryProtocol.putSignedVarInt(b, dx[j]);
+                BinaryProtocol.putSignedVarInt(b, dy[j]);
+                n++;
+            }
+            b.putInt(count, n);
+
+            // despawns
+            count = b.position();
+            b.putInt(0);
+            n = 0;
+            for (int i = 0, j = 0; i < base.count; i++) {
+                while (j < this.count && id[j] < base.id[i]) j++;
+                if (j < this.count && id[j] == base.id[i]) continue;
+                BinaryProtocol.putVarInt(b, base.id[i]);
+                n++;
+            }
+            b.putInt(count, n);
+
+            // changes
+            count = b.position();
+            b.putInt(0);
+            n = 0;
+            for (int i = 0, j = 0; j < this.count; j++) {
+                while (i < base.count && base.id[i] < id[j]) i++;
+                if (i == base.count || base.id[i] != id[j]) continue;
+                if (x[j] == base.predictX(i, ticks) && y[j] == base.predictY(i, ticks)
+                        && dx[j] == base.dx[i] && dy[j] == base.dy[i]) continue;
+                BinaryProtocol.putVarInt(b, id[j]);
+                BinaryProtocol.putSignedVarInt(b, x[j]);
+                BinaryProtocol.putSignedVarInt(b, y[j]);
+                BinaryProtocol.putSignedVarInt(b, dx[j]);
+                BinaryProtocol.putSignedVarInt(b, dy[j]);
+                n++;
+            }
+            b.putInt(count, n);
+        }
+
+        static Group readDelta(ByteBuffer b, Group base, int ticks) {
+            int spawnCount = b.getInt();
+            var spawns = new Group(spawnCount);
+            for (int k = 0; k < spawnCount; k++) {
+                spawns.add(BinaryProtocol.getVarInt(b), BinaryProtocol.getVarInt(b) - 1,
+                        BinaryProtocol.getSignedVarInt(b), BinaryProtocol.getSignedVarInt(b),
+                        BinaryProtocol.getSignedVarInt(b), BinaryProtocol.getSignedVarInt(b));
+            }
+
+            int despawnCount = b.getInt();
+            var g = new Group(Math.max(0, base.count - despawnCount) + spawnCount);
+
+            // everything from the baseline that wasn't despawned, moved by its velocity
+            int i = 0;
+            for (int k = 0; k < despawnCount; k++) {
+                int despawned = BinaryProtocol.getVarInt(b);
+                for (; i < base.count && base.id[i] < despawned; i++) {
+                    g.add(base.id[i], base.owner[i], base.predictX(i, ticks), base.predictY(i, ticks), base.dx[i], base.dy[i]);
+                }
+                if (i < base.count && base.id[i] == despawned) i++;
+            }
+            for (; i < base.count; i++) {
+                g.add(base.id[i], base.owner[i], base.predictX(i, ticks), base.predictY(i, ticks), base.dx[i], base.dy[i]);
+            }
+
+            // then the ones that didn't move as predicted
+            int changedCount = b.getInt();
+            int j = 0;
+            for (int k = 0; k < changedCount; k++) {
+                int changed = BinaryProtocol.getVarInt(b);
+                while (j < g.count && g.id[j] < changed) j++;
+                int x = BinaryProtocol.getSignedVarInt(b);
+                int y = BinaryProtocol.getSignedVarInt(b);
+                int dx = BinaryProtocol.getSignedVarInt(b);
+                int dy = BinaryProtocol.getSignedVarInt(b);
+                if (j < g.count && g.id[j] == changed) {
+                    g.x[j] = x;
+                    g.y[j] = y;
+                    g.dx[j] = dx;
+                    g.dy[j] = dy;
+                }
+            }
+
+            for (int k = 0; k < spawns.count; k++) {
+                g.add(spawns.id[k], spawns.owner[k], spawns.x[k], spawns.y[k], spawns.dx[k], spawns.dy[k]);
+            }
+            g.sortById();
+            return g;
+        }
+
+        private void sortById() {
+            boolean sorted = true;
+            for (int i = 1; i < count && sorted; i++) {
+                sorted = id[i - 1] < id[i];
+            }
+            if (sorted) return;
+
+            // sort (id, index) pairs packed into longs, then permute every column
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = ((long) id[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            permute(id, keys);
+            permute(owner, keys);
+            permute(x, keys);
+            permute(y, keys);
+            permute(dx, keys);
+            permute(dy, keys);
+        }
+
+        private void permute(int[] column, long[] keys) {
+            int[] copy = Arrays.copyOf(column, count);
+            for (int i = 0; i < count; i++) {
+                column[i] = copy[(int) keys[i]];
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryProtocolTest {
+    private static final int[] VALUES = {0, 1, -1, 63, -64, 64, 127, 128, 16383, 16384, -1_000_000,
+            Integer.MAX_VALUE, Integer.MIN_VALUE};
+
+    @Test
+    void varIntsRoundTrip() {
+        var b = ByteBuffer.allocate(256);
+        for (int v : VALUES) {
+            BinaryProtocol.putVarInt(b, v);
+            BinaryProtocol.putSignedVarInt(b, v);
+        }
+        b.flip();
+        for (int v : VALUES) {
+            assertEquals(v, BinaryProtocol.getVarInt(b));
+            assertEquals(v, BinaryProtocol.getSignedVarInt(b));
+        }
+        assertFalse(b.hasRemaining());
+    }
+
+    @Test
+    void smallValuesTakeOneByte() {
+        var b = ByteBuffer.allocate(16);
+        BinaryProtocol.putVarInt(b, 127);
+        BinaryProtocol.putSignedVarInt(b, -64);
+        BinaryProtocol.putSignedVarInt(b, 63);
+        assertEquals(3, b.position());
+        BinaryProtocol.putVarInt(b, -1);  // unsigned: the longest there is
+        assertEquals(8, b.position());
+    }
+
+    @Test
+    void framesAreLengthPrefixed() {
+        var b = ByteBuffer.allocate(64);
+        int frame = BinaryProtocol.beginFrame(b, BinaryProtocol.SNAPSHOT);
+        b.putInt(42);
+        BinaryProtocol.putVarInt(b, 300);
+        BinaryProtocol.endFrame(b, frame);
+
+        var shared = BinaryProtocol.share(b);
+        assertTrue(shared.isReadOnly());
+        assertEquals(b.position(), shared.remaining());
+        int length = shared.getInt();
+        assertEquals(shared.remaining(), length);
+        assertEquals(BinaryProtocol.SNAPSHOT, shared.get());
+        assertEquals(42, shared.getInt());
+        assertEquals(300, BinaryProtocol.getVarInt(shared));
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void aRestoredRoomCarriesOnLikeTheOriginal() throws IOException {
+        var room = new Room("test", 4242);
+        var random = new Random(1);
+        var players = new ArrayList<Player>();
+        for (int i = 0; i < 3; i++) {
+            var p = new Player(100 + 150 * i, Client.PLAYER_START_Y);
+            p.id = i;
+            p.setName("p" + i);
+            var c = new NullConnection();
+            c.player = p;
+            room.join(c);
+            players.add(p);
+        }
+        for (int t = 0; t < 700; t++) {
+            for (Player p : players) {
+                if (random.nextInt(10) == 0) p.inputs.offer(random.nextInt(32));
+            }
+            room.game.timeStep();
+        }
+        // a restored room's players hold no buttons until their clients are back
+        for (Player p : players) {
+            p.setButtons(0);
+        }
+
+        var restored = Room.restore(room.checkpoint());
+        assertEquals(room.name, restored.name);
+        assertEquals(room.seed, restored.seed);
+        assertEquals(room.tick(), restored.tick());
+        assertEquals(room.stateHash(), restored.stateHash());
+        assertEquals(room.playerCount(), restored.playerCount());
+
+        // the waves and the random sequence go on from where they were
+        for (int t = 0; t < 1000; t++) {
+            room.game.timeStep();
+            restored.game.timeStep();
+            assertEquals(room.stateHash(), restored.stateHash(), "tick " + room.tick());
+        }
+    }
+
+    @Test
+    void theFileHasTheLastCheckpoint() throws IOException {
+        var file = dir.resolve("checkpoint");
+        var checkpoint = new Checkpoint(file);
+        assertNull(checkpoint.latest());
+
+        checkpoint.write(payload(100, 1));
+        assertEquals(payload(100, 1), new Checkpoint(file).latest());
+        checkpoint.write(payload(200, 2));
+        checkpoint.write(payload(50, 3));
+        assertEquals(payload(50, 3), new Checkpoint(file).latest());
+    }
+
+    @Test
+    void theFileGrowsForABiggerCheckpoint() throws IOException {
+        var file = dir.resolve("checkpoint");
+        var checkpoint = new Checkpoint(file);
+        checkpoint.write(payload(1000, 1));
+        checkpoint.write(payload(200_000, 2));
+        assertEquals(payload(200_000, 2), new Checkpoint(file).latest());
+
+        // both slots are used at the new size from now on
+        checkpoint.write(payload(10, 3));
+        assertEquals(payload(10, 3), new Checkpoint(file).latest());
+        checkpoint.write(payload(150_000, 4));
+        assertEquals(payload(150_000, 4), new Checkpoint(file).latest());
+    }
+
+    @Test
+    void aTornWriteLeavesThePreviousCheckpoint() throws IOException {
+        var file = dir.resolve("checkpoint");
+        var checkpoint = new Checkpoint(file);
+        checkpoint.write(payload(1000, 1));  // into slot 1
+        checkpoint.write(payload(1000, 2));  // into slot 0
+
+        // garble the first payload byte of slot 0: the 64 byte file header, then the slot's own 16
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xEE}), 64 + 16);
+        }
+        assertEquals(payload(1000, 1), new Checkpoint(file).latest());
+    }
+
+    private static ByteBuffer payload(int length, int seed) {
+        var bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        bytes[0] = (byte) seed;  // never 0xEE
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollisionGridTest {
+
+    @Test
+    void findsTheSameHitAsABruteForceScan() {
+        var random = new Random(7);
+        var enemies = new EntityStore(SpriteType.ENEMY, 0);
+        // some of them outside the grid, which clamps them into its border cells
+        for (int i = 0; i < 2000; i++) {
+            enemies.spawn(random.nextInt(800) - 100, random.nextInt(900) - 200, 0, 0, -1);
+        }
+        var grid = new CollisionGrid(0, -100, 600, 750, 64);
+        grid.build(enemies);
+
+        // killed after the build: still in their cells, but never a hit
+        for (int i = 0; i < 2000; i += 1 + random.nextInt(5)) {
+            enemies.kill(i);
+        }
+
+        int hits = 0;
+        for (int q = 0; q < 5000; q++) {
+            int x = random.nextInt(900) - 150, y = random.nextInt(1000) - 250;
+            int w = 1 + random.nextInt(70), h = 1 + random.nextInt(70);
+            int expected = bruteForce(enemies, x, y, w, h);
+            assertEquals(expected, grid.firstHit(x, y, w, h), "query " + x + "," + y + " " + w + "x" + h);
+            if (expected >= 0) hits++;
+        }
+        assertTrue(hits > 500, "the queries should hit something often enough to mean anything: " + hits);
+    }
+
+    @Test
+    void touchingEdgesDoNotOverlap() {
+        var enemies = new EntityStore(SpriteType.ENEMY, 0);
+        int w = enemies.type.width, h = enemies.type.height;
+        int e = enemies.spawn(100, 100, 0, 0, -1);
+        var grid = new CollisionGrid(0, 0, 600, 600, 64);
+        grid.build(enemies);
+
+        assertEquals(-1, grid.firstHit(100 + w, 100, 10, 10));
+        assertEquals(-1, grid.firstHit(90, 100, 10, 10));
+        assertEquals(-1, grid.firstHit(100, 100 + h, 10, 10));
+        assertEquals(e, grid.firstHit(100 + w - 1, 100 + h - 1, 10, 10));
+        assertEquals(e, grid.firstHit(91, 91, 10, 10));
+    }
+
+    /**
+     * The lowest live slot whose hitbox overlaps the box.
+     */
+    private static int bruteForce(EntityStore store, int qx, int qy, int qw, int qh) {
+        int w = store.type.width, h = store.type.height;
+        for (int i = store.next(0); i >= 0; i = store.next(i + 1)) {
+            int x = store.x[i], y = store.y[i];
+            if (x < qx + qw && qx < x + w && y < qy + qh && qy < y + h) return i;
+        }
+        return -1;
+    }
+}
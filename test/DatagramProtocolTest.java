@@ -0,0 +1,86 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatagramProtocolTest {
+
+    @Test
+    void putsFragmentsBackTogetherInAnyOrder() {
+        var messages = new DatagramProtocol.Reassembler();
+        var message = message(3000, 1);  // three fragments, the last one short
+        var packets = packets(0, message);
+        assertEquals(3, packets.length);
+
+        assertNull(messages.add(packets[2]));
+        assertNull(messages.add(packets[0]));
+        assertNull(messages.add(packets[0].rewind()));  // a duplicate changes nothing
+        assertEquals(ByteBuffer.wrap(message), messages.add(packets[1]));
+
+        var single = message(10, 2);
+        assertEquals(ByteBuffer.wrap(single), messages.add(packets(1, single)[0]));
+        assertEquals(0, messages.stale);
+        assertEquals(0, messages.incomplete);
+    }
+
+    @Test
+    void dropsMessagesOlderThanTheNewestOne() {
+        var messages = new DatagramProtocol.Reassembler();
+        assertNotNull(messages.add(packets(5, message(100, 1))[0]));
+        assertNull(messages.add(packets(4, message(100, 2))[0]));
+        assertNull(messages.add(packets(5, message(100, 3))[0]));
+        assertEquals(2, messages.stale);
+
+        // seq wraps around like the server's counter
+        messages = new DatagramProtocol.Reassembler();
+        assertNotNull(messages.add(packets(Integer.MAX_VALUE, message(100, 4))[0]));
+        assertNotNull(messages.add(packets(Integer.MIN_VALUE, message(100, 5))[0]));
+        assertEquals(0, messages.stale);
+    }
+
+    @Test
+    void dropsAnIncompleteMessageWhenANewerOneStarts() {
+        var messages = new DatagramProtocol.Reassembler();
+        var lost = packets(1, message(2000, 1));
+        var newer = packets(2, message(2000, 2));
+
+        assertNull(messages.add(lost[0]));
+        assertNull(messages.add(newer[1]));
+        assertEquals(1, messages.incomplete);
+        assertNull(messages.add(lost[1]));  // too late, the message was given up
+        assertEquals(1, messages.stale);
+        assertEquals(ByteBuffer.wrap(message(2000, 2)), messages.add(newer[0]));
+    }
+
+    @Test
+    void ignoresMalformedPackets() {
+        var messages = new DatagramProtocol.Reassembler();
+        assertNull(messages.add(ByteBuffer.allocate(DatagramProtocol.HEADER - 1)));
+        var badFragment = ByteBuffer.allocate(DatagramProtocol.HEADER + 1).putInt(0).put((byte) 2).put((byte) 2);
+        assertNull(messages.add(badFragment.rewind()));
+        assertEquals(ByteBuffer.wrap(message(50, 1)), messages.add(packets(0, message(50, 1))[0]));
+    }
+
+    private static byte[] message(int length, int seed) {
+        var bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * The packets of one message, cut up the way DatagramTransport.Peer.send does it.
+     */
+    private static ByteBuffer[] packets(int seq, byte[] message) {
+        int fragments = (message.length + DatagramProtocol.MAX_PAYLOAD - 1) / DatagramProtocol.MAX_PAYLOAD;
+        var packets = new ByteBuffer[fragments];
+        for (int i = 0; i < fragments; i++) {
+            int offset = i * DatagramProtocol.MAX_PAYLOAD;
+            int size = Math.min(DatagramProtocol.MAX_PAYLOAD, message.length - offset);
+            packets[i] = ByteBuffer.allocate(DatagramProtocol.HEADER + size);
+            packets[i].putInt(seq).put((byte) i).put((byte) fragments).put(message, offset, size).flip();
+        }
+        return packets;
+    }
+}
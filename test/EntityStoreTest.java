@@ -0,0 +1,137 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityStoreTest {
+
+    @Test
+    void killedSlotsAreReusedLastInFirstOut() {
+        var store = new EntityStore(SpriteType.ENEMY, 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, store.spawn(i, 0, 0, 0, -1));
+        }
+        store.kill(1);
+        store.kill(3);
+        store.kill(3);  // a second kill is ignored, so the slot is on the free-list once
+        assertEquals(3, store.size());
+        assertFalse(store.isAlive(3));
+
+        assertEquals(3, store.spawn(0, 0, 0, 0, -1));
+        assertEquals(1, store.spawn(0, 0, 0, 0, -1));
+        assertEquals(5, store.spawn(0, 0, 0, 0, -1));
+        assertEquals(6, store.highWater());
+    }
+
+    @Test
+    void idsAreNeverReused() {
+        var store = new EntityStore(SpriteType.ENEMY, 0);
+        int first = store.spawn(0, 0, 0, 0, -1);
+        int firstId = store.id[first];
+        store.kill(first);
+        int again = store.spawn(0, 0, 0, 0, -1);
+        assertEquals(first, again);
+        assertNotEquals(firstId, store.id[again]);
+    }
+
+    @Test
+    void nextVisitsTheLiveSlotsInOrder() {
+        var store = new EntityStore(SpriteType.MISSILE, 0);
+        for (int i = 0; i < 200; i++) {
+            store.spawn(i, 0, 0, 0, -1);
+        }
+        var expected = new ArrayList<Integer>();
+        for (int i = 0; i < 200; i++) {
+            if (i % 3 == 0 || i == 64 || i == 127) store.kill(i);
+            else expected.add(i);
+        }
+        var visited = new ArrayList<Integer>();
+        for (int i = store.next(0); i >= 0; i = store.next(i + 1)) {
+            visited.add(i);
+        }
+        assertEquals(expected, visited);
+        assertEquals(expected.size(), store.size());
+    }
+
+    @Test
+    void growingKeepsTheEntities() {
+        var store = new EntityStore(SpriteType.ENEMY, 0);
+        int n = store.capacity() * 3;
+        for (int i = 0; i < n; i++) {
+            store.spawn(i, -i, 1, 2, i % 7);
+        }
+        assertTrue(store.capacity() >= n);
+        for (int i = 0; i < n; i++) {
+            assertTrue(store.isAlive(i));
+            assertEquals(i, store.x[i]);
+            assertEquals(-i, store.y[i]);
+            assertEquals(i % 7, store.owner[i]);
+        }
+    }
+
+    @Test
+    void killOwnedByOnlyKillsThatOwner() {
+        var store = new EntityStore(SpriteType.MISSILE, 0);
+        for (int i = 0; i < 10; i++) {
+            store.spawn(0, 0, 0, 0, i % 2);
+        }
+        store.killOwnedBy(1);
+        assertEquals(5, store.size());
+        for (int i = store.next(0); i >= 0; i = store.next(i + 1)) {
+            assertEquals(0, store.owner[i]);
+        }
+    }
+
+    @Test
+    void readRebuildsWhatWriteWrote() {
+        var store = randomStore();
+        var b = ByteBuffer.allocate(64 * 1024);
+        store.write(b);
+        b.flip();
+
+        var copy = new EntityStore(SpriteType.ENEMY, 0);
+        copy.spawn(1, 2, 3, 4, 5);  // replaced by the read
+        copy.read(b);
+        assertFalse(b.hasRemaining());
+        assertEqualStores(store, copy, 7);
+    }
+
+    @Test
+    void copyFromMakesAnExactCopy() {
+        var store = randomStore();
+        var copy = new EntityStore(SpriteType.ENEMY, 0);
+        copy.copyFrom(store);
+        assertEqualStores(store, copy, 11);
+    }
+
+    /**
+     * Same entities, same hash, and the same slots and ids for the next spawns, which come off the free-list.
+     */
+    private static void assertEqualStores(EntityStore expected, EntityStore actual, int spawns) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.highWater(), actual.highWater());
+        assertEquals(expected.hash(17), actual.hash(17));
+        for (int i = 0; i < spawns; i++) {
+            int slot = expected.spawn(i, i, 0, 0, -1);
+            assertEquals(slot, actual.spawn(i, i, 0, 0, -1));
+            assertEquals(expected.id[slot], actual.id[slot]);
+        }
+        assertEquals(expected.hash(17), actual.hash(17));
+    }
+
+    private static EntityStore randomStore() {
+        var random = new Random(42);
+        var store = new EntityStore(SpriteType.ENEMY, 0);
+        for (int i = 0; i < 300; i++) {
+            store.spawn(random.nextInt(600) - 50, random.nextInt(700) - 100, random.nextInt(5) - 2,
+                    random.nextInt(9) - 4, random.nextInt(4) - 1);
+        }
+        for (int i = 0; i < 300; i += 1 + random.nextInt(4)) {
+            store.kill(i);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,74 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InputQueueTest {
+
+    @Test
+    void drainGivesTheNewestButtons() {
+        var inputs = new InputQueue();
+        assertEquals(Player.LEFT, inputs.drain(Player.LEFT));  // nothing queued
+        assertEquals(-1, inputs.appliedSeq);
+
+        inputs.offer(0, Player.UP);
+        inputs.offer(1, Player.UP | Player.RIGHT);
+        inputs.offer(2, Player.DOWN);
+        assertEquals(Player.DOWN, inputs.drain(0));
+        assertEquals(2, inputs.appliedSeq);
+        assertEquals(Player.DOWN, inputs.drain(Player.DOWN));  // drained
+        assertEquals(2, inputs.appliedSeq);
+    }
+
+    @Test
+    void aTapBetweenTwoTicksStillFires() {
+        var inputs = new InputQueue();
+        inputs.offer(0, Player.FIRE | Player.UP);
+        inputs.offer(1, Player.UP);
+        assertEquals(Player.UP | Player.FIRE, inputs.drain(0));
+        inputs.offer(2, Player.UP);
+        assertEquals(Player.UP, inputs.drain(0));
+    }
+
+    @Test
+    void ignoresInputsThatAreNotNewer() {
+        var inputs = new InputQueue();
+        inputs.offer(5, Player.LEFT);
+        inputs.offer(5, Player.RIGHT);  // a keepalive repeats the seq, with the same buttons
+        inputs.offer(4, Player.UP);  // late
+        assertEquals(Player.LEFT, inputs.drain(0));
+        assertEquals(5, inputs.appliedSeq);
+
+        // sequence numbers wrap around
+        inputs.offer(Integer.MAX_VALUE, Player.UP);
+        inputs.offer(Integer.MIN_VALUE, Player.DOWN);
+        assertEquals(Player.DOWN, inputs.drain(0));
+        assertEquals(Integer.MIN_VALUE, inputs.appliedSeq);
+    }
+
+    @Test
+    void dropsTheOldestWhenFull() {
+        var inputs = new InputQueue();
+        inputs.offer(0, Player.FIRE);
+        for (int seq = 1; seq < 40; seq++) {
+            inputs.offer(seq, seq % 2 == 0 ? Player.UP : Player.DOWN);
+        }
+        // the FIRE was dropped with the oldest inputs, only the newest 32 count
+        assertEquals(Player.DOWN, inputs.drain(0));
+        assertEquals(39, inputs.appliedSeq);
+
+        // and the queue goes on working after wrapping around its array
+        inputs.offer(40, Player.FIRE);
+        inputs.offer(41, Player.LEFT);
+        assertEquals(Player.LEFT | Player.FIRE, inputs.drain(0));
+    }
+
+    @Test
+    void textInputsGoOnFromTheLastSeq() {
+        var inputs = new InputQueue();
+        inputs.offer(7, Player.UP);
+        inputs.offer(Player.DOWN);
+        inputs.offer(Player.LEFT);
+        assertEquals(Player.LEFT, inputs.drain(0));
+        assertEquals(9, inputs.appliedSeq);
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PredictionTest {
+
+    @Test
+    void stepsMoveTheShipLikeTheServer() {
+        var prediction = new Prediction();
+        var server = new Player(0, 0);
+        int[] inputs = {Player.RIGHT, Player.RIGHT | Player.DOWN, Player.UP | Player.FIRE, 0, Player.LEFT};
+        for (int i = 0; i < inputs.length; i++) {
+            prediction.step(i, inputs[i]);
+            server.setButtons(inputs[i]);
+            server.move();
+        }
+        assertEquals(server.x, prediction.getX());
+        assertEquals(server.y, prediction.getY());
+        assertFalse(prediction.isReady());
+    }
+
+    @Test
+    void replaysTheInputsTheServerHasNotApplied() {
+        var prediction = new Prediction();
+        for (int t = 0; t < 4; t++) prediction.step(0, Player.RIGHT);
+        for (int t = 0; t < 3; t++) prediction.step(1, Player.DOWN);
+        for (int t = 0; t < 2; t++) prediction.step(2, Player.LEFT | Player.UP);
+
+        // the server had input 1 for two ticks, and the ship somewhere else than predicted
+        prediction.reconcile(1, 2, 300, 200);
+        assertTrue(prediction.isReady());
+        var expected = moved(300, 200, Player.DOWN, Player.LEFT | Player.UP, Player.LEFT | Player.UP);
+        assertEquals(expected.x, prediction.getX());
+        assertEquals(expected.y, prediction.getY());
+
+        // the next step goes on from the corrected position
+        prediction.step(2, Player.LEFT | Player.UP);
+        expected = moved(expected.x, expected.y, Player.LEFT | Player.UP);
+        assertEquals(expected.x, prediction.getX());
+        assertEquals(expected.y, prediction.getY());
+    }
+
+    @Test
+    void anInputAppliedForLongerThanRecordedReplaysNothing() {
+        var prediction = new Prediction();
+        for (int t = 0; t < 3; t++) prediction.step(0, Player.RIGHT);
+        // the server ran ticks the client hadn't stepped yet
+        prediction.reconcile(0, 5, 120, 80);
+        assertEquals(120, prediction.getX());
+        assertEquals(80, prediction.getY());
+    }
+
+    @Test
+    void anInputThatIsNoLongerRecordedJumpsToTheServer() {
+        var prediction = new Prediction();
+        prediction.step(0, Player.RIGHT);
+        for (int t = 0; t < 300; t++) prediction.step(1, Player.DOWN);  // past the history
+        prediction.reconcile(0, 1, 50, 60);
+        assertEquals(50, prediction.getX());
+        assertEquals(60, prediction.getY());
+
+        prediction.reconcile(7, 1, 70, 90);  // not sent yet
+        assertEquals(70, prediction.getX());
+        assertEquals(90, prediction.getY());
+    }
+
+    private static Player moved(int x, int y, int... buttons) {
+        var p = new Player(x, y);
+        for (int b : buttons) {
+            p.setButtons(b);
+            p.move();
+        }
+        return p;
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayTest {
+    private static final int TICKS = 2000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void aReplayGoesThroughTheRecordedStates() throws IOException {
+        var file = dir.resolve("session.log");
+        record(file, 12345, 0);
+        assertTrue(Replay.replay(file, 1));
+        assertTrue(Replay.replay(file, 2));  // and again, from the same log
+    }
+
+    @Test
+    void aReplayNoticesADifferentState() throws IOException {
+        var file = dir.resolve("tampered.log");
+        record(file, 12345, 1);
+        assertFalse(Replay.replay(file, 1));
+    }
+
+    @Test
+    void theSameSeedAndInputsGiveTheSameGame() throws IOException {
+        long a = record(dir.resolve("a.log"), 99, 0);
+        long b = record(dir.resolve("b.log"), 99, 0);
+        long c = record(dir.resolve("c.log"), 100, 0);
+        assertEquals(a, b);
+        assertNotEquals(a, c);  // enemies spawn at random x
+    }
+
+    @Test
+    void readerGivesBackTheRecords() throws IOException {
+        var file = dir.resolve("records.log");
+        var log = InputLog.create(file, "room", 7);
+        log.join(0, 3, "p3");
+        log.input(5, 3, Player.UP | Player.FIRE);
+        log.check(64, 0x1234_5678_9ABCL);
+        log.leave(300, 3);
+        log.close(301);
+
+        try (var reader = new InputLog.Reader(file)) {
+            assertEquals("room", reader.room);
+            assertEquals(7, reader.seed);
+            assertTrue(reader.next());
+            assertEquals(InputLog.JOIN, reader.type);
+            assertEquals(0, reader.tick);
+            assertEquals(3, reader.playerId);
+            assertEquals("p3", reader.name);
+            assertTrue(reader.next());
+            assertEquals(InputLog.INPUT, reader.type);
+            assertEquals(5, reader.tick);
+            assertEquals(Player.UP | Player.FIRE, reader.buttons);
+            assertTrue(reader.next());
+            assertEquals(InputLog.CHECK, reader.type);
+            assertEquals(64, reader.tick);
+            assertEquals(0x1234_5678_9ABCL, reader.hash);
+            assertTrue(reader.next());
+            assertEquals(InputLog.LEAVE, reader.type);
+            assertEquals(300, reader.tick);
+            assertTrue(reader.next());
+            assertEquals(InputLog.END, reader.type);
+            assertEquals(301, reader.tick);
+            assertFalse(reader.next());
+        }
+    }
+
+    /**
+     * Plays a session with random inputs and records it the way a running room does: joins, leaves and button changes
+     * at the start of their tick, and a CHECK every CHECK_INTERVAL.
+     * @param wrongHashes XORed into the hash of every CHECK
+     * @return the room's state hash at the end
+     */
+    private static long record(Path file, long seed, long wrongHashes) throws IOException {
+        var room = new Room("test", seed);
+        var log = InputLog.create(file, room.name, seed);
+        var random = new Random(seed);
+        var players = new ArrayList<Player>();
+        for (int t = 0; t < TICKS; t++) {
+            if (t == 0 || t == 150 || t == 400) {
+                var p = new Player(Client.PLAYER_START_X, Client.PLAYER_START_Y);
+                p.id = players.size();
+                p.setName("p" + p.id);
+                var c = new NullConnection();
+                c.player = p;
+                room.join(c);
+                players.add(p);
+                log.join(t, p.id, p.getName());
+            }
+            if (t == 1200) {
+                players.get(1).hasLeft = true;
+                log.leave(t, 1);
+            }
+            for (Player p : players) {
+                if (p.hasLeft || random.nextInt(15) != 0) continue;
+                int buttons = random.nextInt(32);
+                p.inputs.offer(buttons);
+                if (buttons != p.buttons()) log.input(t, p.id, buttons);
+            }
+            room.game.timeStep();
+            if (room.tick() % InputLog.CHECK_INTERVAL == 0) log.check(room.tick(), room.stateHash() ^ wrongHashes);
+        }
+        log.close(room.tick());
+        return room.stateHash();
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomTest {
+
+    @Test
+    void aTextClientFindsItsOwnNonAsciiName() throws IOException {
+        var room = new Room("test", 1);
+        var frames = new ArrayList<ByteBuffer>();
+        var c = new Connection() {
+            @Override
+            boolean send(ByteBuffer frame, boolean flush) {
+                frames.add(frame);
+                return true;
+            }
+
+            @Override
+            void close() {
+            }
+        };
+        c.handshake = Handshake.parse("Jürgen_ß_東京");
+        c.player = new Player(Client.PLAYER_START_X, Client.PLAYER_START_Y);
+        c.player.setName(c.handshake.name);
+        room.join(c);
+        room.game.timeStep();
+        room.new DataSender().run();
+
+        assertEquals(1, frames.size());
+        var frame = frames.get(0);
+        var bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        var client = new Client(c.handshake.name);
+        client.processData(bytes, 0, bytes.length);
+        assertFalse(client.gameOver, "the client did not find " + c.handshake.name + " among the players");
+    }
+
+    @Test
+    void aSplitTickEndsLikeASequentialOne() throws IOException {
+        List<Player> parallelPlayers = new ArrayList<>(), sequentialPlayers = new ArrayList<>();
+        var parallel = denseRoom(1, parallelPlayers);  // every tick split
+        var sequential = denseRoom(0, sequentialPlayers);  // none
+        int enemies = sequential.enemies.size();
+        var random = new Random(3);
+        for (int t = 0; t < 300; t++) {
+            for (int i = 0; i < parallelPlayers.size(); i++) {
+                if (random.nextInt(20) != 0) continue;
+                int buttons = random.nextInt(32);
+                parallelPlayers.get(i).inputs.offer(buttons);
+                sequentialPlayers.get(i).inputs.offer(buttons);
+            }
+            parallel.game.timeStep();
+            sequential.game.timeStep();
+            assertEquals(sequential.stateHash(), parallel.stateHash(), "tick " + sequential.tick());
+        }
+        assertTrue(sequential.enemies.size() < enemies - 1000, "too few kills to mean anything: "
+                + (enemies - sequential.enemies.size()));
+    }
+
+    /**
+     * A room with 4 players below thousands of enemies and missiles, many chunks of each, and missiles that hit
+     * the same enemy in one tick.
+     */
+    private static Room denseRoom(int parallelThreshold, List<Player> players) throws IOException {
+        var room = new Room("dense", 77);
+        room.parallelThreshold = parallelThreshold;
+        for (int i = 0; i < 4; i++) {
+            var c = new NullConnection();
+            c.player = new Player(100 + 120 * i, Client.PLAYER_START_Y);
+            c.player.id = i;
+            c.player.setName("p" + i);
+            room.join(c);
+            players.add(c.player);
+        }
+        var random = new Random(5);
+        for (int i = 0; i < 6000; i++) {
+            room.enemies.spawn(random.nextInt(Client.DEFAULT_WIDTH), random.nextInt(400) - 100,
+                    random.nextInt(3) - 1, 1 + random.nextInt(3), -1);
+        }
+        for (int i = 0; i < 4000; i++) {
+            // nobody's, so they outlive the players
+            room.missiles.spawn(random.nextInt(Client.DEFAULT_WIDTH), random.nextInt(800), 0, -10, -1);
+        }
+        return room;
+    }
+}
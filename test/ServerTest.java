@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerTest {
+
+    @Test
+    void compactInputLinesQueueTheirSeqAndButtons() {
+        var c = connection();
+        Server.processData(c, "I 0 " + (Player.UP | Player.FIRE));
+        Server.processData(c, "I 1 " + Player.RIGHT);
+        Server.processData(c, "I 1 " + Player.RIGHT);  // a keepalive
+        assertEquals(Player.RIGHT | Player.FIRE, c.player.inputs.drain(0));
+        assertEquals(1, c.player.inputs.appliedSeq);
+
+        Server.processData(c, "I 2 " + (255 & ~Player.LEFT));  // only the five buttons count
+        assertEquals(31 & ~Player.LEFT, c.player.inputs.drain(0));
+    }
+
+    @Test
+    void malformedCompactInputLinesAreIgnored() {
+        var c = connection();
+        Server.processData(c, "I 3 " + Player.DOWN);
+        for (var line : new String[]{"I ", "I 4", "I 4 ", "I x 1", "I 4 1x", "I 99999999999 1"}) {
+            Server.processData(c, line);
+        }
+        assertEquals(Player.DOWN, c.player.inputs.drain(0));
+        assertEquals(3, c.player.inputs.appliedSeq);
+    }
+
+    @Test
+    void ackLinesSetTheAckedSnapshot() {
+        var c = connection();
+        Server.processData(c, "ACK 42");
+        assertEquals(42, c.ackedSeq);
+    }
+
+    private static Connection connection() {
+        var c = new NullConnection();
+        c.player = new Player(0, 0);
+        return c;
+    }
+}
@@ -0,0 +1,111 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WaveScheduleTest {
+    private static final String TWO_WAVES = String.join("\n",
+            "# a line across, then bursts in the middle",
+            "wave 100",
+            "spawn 10 20 5 line:0:400 1 4 flat",
+            "",
+            "wave 50",
+            "spawn 0 1 3 at:77 0 5 burst  # all three at once",
+            "loop 2");
+
+    @Test
+    void compilesSpawnsIntoTheirTicks() throws IOException {
+        var schedule = compile(TWO_WAVES, 100);
+        assertEquals(150, schedule.length());
+
+        // flat: five spawns evenly over ticks 10 to 20, spread along the line in that order
+        for (int i = 0; i < 5; i++) {
+            int t = 10 + 2 * i;
+            assertEquals(i, schedule.first(t));
+            assertEquals(i + 1, schedule.first(t + 1), "one spawn at " + t);
+            assertEquals(100 * i, schedule.x(i));
+            assertEquals(1, schedule.dx(i));
+            assertEquals(4, schedule.dy(i));
+        }
+        assertEquals(0, schedule.first(9));
+
+        // burst: all at the wave's first tick
+        assertEquals(5, schedule.first(100));
+        assertEquals(8, schedule.first(101));
+        for (int i = 5; i < 8; i++) {
+            assertEquals(77, schedule.x(i));
+            assertEquals(5, schedule.dy(i));
+        }
+        assertEquals(8, schedule.first(150));
+    }
+
+    @Test
+    void goesOnFromTheLoopAfterTheLastTick() throws IOException {
+        var schedule = compile(TWO_WAVES, 100);
+        assertEquals(6, schedule.next(5));
+        assertEquals(100, schedule.next(149));
+
+        // without a loop command the last wave repeats
+        var last = compile("wave 10\nspawn 0 10 1 random 0 5 flat\nwave 20\nspawn 0 20 2 random 0 5 up", 100);
+        assertEquals(10, last.next(29));
+        assertEquals(WaveSchedule.RANDOM_X, last.x(0));
+    }
+
+    @Test
+    void peakCountsTheEnemiesAliveAtOnce() throws IOException {
+        // the line lives 104 / 4 + 1 = 27 ticks, all five at once; each burst is gone (22 ticks) before the next one
+        assertEquals(5, compile(TWO_WAVES, 100).peak());
+        // 201 ticks: five bursts overlap, and at tick 250 the line of the first wave (251 ticks) is still there too
+        assertEquals(5 + 4 * 3, compile(TWO_WAVES, 1000).peak());
+
+        // one enemy every 101 ticks
+        int travel = 2000, life = (travel + Enemy.DEFAULT_DY) / Enemy.DEFAULT_DY + 1;
+        assertEquals((life + 100) / 101, WaveSchedule.load(null, travel).peak());
+    }
+
+    @Test
+    void rampsPutTheSpawnsWhereTheyBelong() throws IOException {
+        var up = compile("wave 100\nspawn 0 100 10 random 0 5 up", 100);
+        var down = compile("wave 100\nspawn 0 100 10 random 0 5 down", 100);
+        // up: sparse at first, dense at the end; down the other way round
+        assertTrue(up.first(50) < 5, "up spawns " + up.first(50) + " in the first half");
+        assertTrue(down.first(50) > 5, "down spawns " + down.first(50) + " in the first half");
+        assertEquals(10, up.first(100));
+        assertEquals(10, down.first(100));
+    }
+
+    @Test
+    void zigzagGoesThereAndBack() throws IOException {
+        var schedule = compile("wave 100\nspawn 0 100 8 zigzag:0:300:3 0 5 flat", 100);
+        int[] expected = {0, 100, 200, 300, 200, 100, 0, 100};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], schedule.x(i), "spawn " + i);
+        }
+    }
+
+    @Test
+    void malformedDefinitionsSayWhere() {
+        assertMalformed("waves.txt:3:", "wave 10\n\nspawn 5 20 1 random 0 4 flat");  // past the wave's end
+        assertMalformed("waves.txt:2:", "wave 10\nspawn 0 10 1 random 0 4 sideways");
+        assertMalformed("waves.txt:2:", "wave 10\nspawn 0 10 1 random 0 0 flat");  // would never leave
+        assertMalformed("waves.txt:2:", "wave 10\nspawn 0 10 1 line:0 0 4 flat");
+        assertMalformed("waves.txt:2:", "wave 10\nspawn 0 10 x random 0 4 flat");
+        assertMalformed("waves.txt:1:", "spawn 0 10 1 random 0 4 flat");
+        assertMalformed("waves.txt:1:", "wave");
+        assertMalformed("waves.txt:2:", "wave 10\nboss 1");
+        assertMalformed("waves.txt: loop", "wave 10\nloop 2");
+        assertMalformed("waves.txt: no waves", "# nothing\n");
+    }
+
+    private static void assertMalformed(String expected, String definition) {
+        var e = assertThrows(IllegalArgumentException.class, () -> compile(definition, 100));
+        assertTrue(e.getMessage().startsWith(expected), e.getMessage());
+    }
+
+    private static WaveSchedule compile(String definition, int travel) throws IOException {
+        return WaveSchedule.compile("waves.txt", new BufferedReader(new StringReader(definition)), travel);
+    }
+}
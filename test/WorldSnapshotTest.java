@@ -0,0 +1,124 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorldSnapshotTest {
+
+    @Test
+    void deltaWithoutBaselineHasEverything() {
+        var target = randomSnapshot(new Random(1), 10, 3);
+        assertEqualSnapshots(target, roundTrip(target, null));
+    }
+
+    @Test
+    void deltaAppliedToItsBaselineGivesTheTarget() {
+        var random = new Random(2);
+        var baseline = randomSnapshot(random, 10, 3);
+        int ticks = 4;
+
+        // the target: most entities moved by their velocity, some changed course, some despawned, some spawned
+        var target = new WorldSnapshot(14, 14, moved(random, baseline.players, ticks, 0),
+                moved(random, baseline.missiles, ticks, 10_000), moved(random, baseline.enemies, ticks, 20_000));
+        assertEquals(10 + ticks, target.tick);
+        assertEqualSnapshots(target, roundTrip(target, baseline));
+    }
+
+    @Test
+    void entitiesThatMoveAsPredictedCostNothing() {
+        var baseline = randomSnapshot(new Random(3), 5, 2);
+        var target = new WorldSnapshot(7, 7, predicted(baseline.players, 2), predicted(baseline.missiles, 2),
+                predicted(baseline.enemies, 2));
+        var b = ByteBuffer.allocate(64 * 1024);
+        target.writeDelta(b, baseline);
+        // frame header, seq, tick and baseline seq, then three empty lists for each group
+        assertEquals(4 + 1 + 3 * 4 + 3 * 3 * 4, b.position());
+        assertEqualSnapshots(target, roundTrip(target, baseline));
+    }
+
+    private static WorldSnapshot roundTrip(WorldSnapshot target, WorldSnapshot baseline) {
+        var b = ByteBuffer.allocate(64 * 1024);
+        target.writeDelta(b, baseline);
+        b.flip();
+        assertEquals(b.remaining() - 4, b.getInt());
+        assertEquals(BinaryProtocol.DELTA, b.get());
+        var read = WorldSnapshot.readDelta(b, baseline);
+        assertFalse(b.hasRemaining());
+        return read;
+    }
+
+    private static WorldSnapshot randomSnapshot(Random random, int tick, int players) {
+        var p = new WorldSnapshot.Group(players);
+        for (int i = 0; i < players; i++) {
+            p.add(i * 2, -1, random.nextInt(600), random.nextInt(600), 0, 0);
+        }
+        return new WorldSnapshot(tick, tick, p, randomGroup(random, 200, 0), randomGroup(random, 300, 5));
+    }
+
+    private static WorldSnapshot.Group randomGroup(Random random, int count, int dy) {
+        var g = new WorldSnapshot.Group(count);
+        int id = 0;
+        for (int i = 0; i < count; i++) {
+            id += 1 + random.nextInt(3);
+            g.add(id, random.nextInt(4) - 1, random.nextInt(700) - 50, random.nextInt(800) - 100,
+                    random.nextInt(3) - 1, dy == 0 ? -10 : dy);
+        }
+        return g;
+    }
+
+    private static WorldSnapshot.Group predicted(WorldSnapshot.Group base, int ticks) {
+        var g = new WorldSnapshot.Group(base.count);
+        for (int i = 0; i < base.count; i++) {
+            g.add(base.id[i], base.owner[i], base.x[i] + base.dx[i] * ticks, base.y[i] + base.dy[i] * ticks,
+                    base.dx[i], base.dy[i]);
+        }
+        return g;
+    }
+
+    /**
+     * base after the given ticks: every 7th entity despawned, every 5th off its predicted course,
+     * and new entities, some in the gaps between the old ids and the rest after them.
+     */
+    private static WorldSnapshot.Group moved(Random random, WorldSnapshot.Group base, int ticks, int firstNewId) {
+        var g = new WorldSnapshot.Group(base.count * 2 + 10);
+        for (int i = 0; i < base.count; i++) {
+            if (i % 4 == 0 && i > 0 && base.id[i] - base.id[i - 1] > 1) {
+                g.add(base.id[i] - 1, 1, random.nextInt(600), 0, 0, 3);
+            }
+            if (i % 7 == 3) continue;
+            int x = base.x[i] + base.dx[i] * ticks, y = base.y[i] + base.dy[i] * ticks;
+            int dx = base.dx[i];
+            if (i % 5 == 1) {
+                x += 13;
+                dx = 2;
+            }
+            g.add(base.id[i], base.owner[i], x, y, dx, base.dy[i]);
+        }
+        for (int i = 0; i < 10; i++) {
+            g.add(100_000 + firstNewId + i, 0, random.nextInt(600), 550, 0, -10);
+        }
+        return g;
+    }
+
+    private static void assertEqualSnapshots(WorldSnapshot expected, WorldSnapshot actual) {
+        assertEquals(expected.seq, actual.seq);
+        assertEquals(expected.tick, actual.tick);
+        assertEqualGroups(expected.players, actual.players);
+        assertEqualGroups(expected.missiles, actual.missiles);
+        assertEqualGroups(expected.enemies, actual.enemies);
+    }
+
+    private static void assertEqualGroups(WorldSnapshot.Group expected, WorldSnapshot.Group actual) {
+        assertEquals(expected.count, actual.count);
+        for (int i = 0; i < expected.count; i++) {
+            assertEquals(expected.id[i], actual.id[i], "id of " + i);
+            assertEquals(expected.owner[i], actual.owner[i], "owner of " + expected.id[i]);
+            assertEquals(expected.x[i], actual.x[i], "x of " + expected.id[i]);
+            assertEquals(expected.y[i], actual.y[i], "y of " + expected.id[i]);
+            assertEquals(expected.dx[i], actual.dx[i], "dx of " + expected.id[i]);
+            assertEquals(expected.dy[i], actual.dy[i], "dy of " + expected.id[i]);
+        }
+    }
+}